@@ -39,8 +39,11 @@ public class SecurityConfiguration {
                         authorize ->
                                 authorize
                                         //configure secured pages
+                                        .requestMatchers("/actuator/health")
+                                        .permitAll()
                                         .requestMatchers(
-                                                "/admin/**"
+                                                "/admin/**",
+                                                "/actuator/**"
                                         )
                                         .hasRole(UserRole.ADMIN.name())
                                         .anyRequest()
@@ -0,0 +1,27 @@
+package me.astroreen.liblanka.domain.product.config;
+
+import org.hibernate.boot.model.FunctionContributions;
+import org.hibernate.boot.model.FunctionContributor;
+import org.hibernate.type.BasicTypeRegistry;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * Makes PostgreSQL full text search available to JPQL and criteria queries, which have no syntax for it:
+ * <ul>
+ *   <li>{@code fts_match(document, query)} is true if the {@code tsvector} document matches the {@code tsquery}</li>
+ *   <li>{@code fts_rank(document, query)} is the relevance of the document for the query, higher is better</li>
+ * </ul>
+ * Queries are parsed with the same {@code simple} configuration the {@code product.search_vector} column is built with.
+ * Registered through {@code META-INF/services}, as Hibernate bootstraps before any Spring bean exists.
+ */
+public class FullTextSearchFunctionContributor implements FunctionContributor {
+
+    @Override
+    public void contributeFunctions(FunctionContributions functionContributions) {
+        BasicTypeRegistry types = functionContributions.getTypeConfiguration().getBasicTypeRegistry();
+        functionContributions.getFunctionRegistry().registerPattern(
+                "fts_match", "(?1 @@ to_tsquery('simple', ?2))", types.resolve(StandardBasicTypes.BOOLEAN));
+        functionContributions.getFunctionRegistry().registerPattern(
+                "fts_rank", "ts_rank(?1, to_tsquery('simple', ?2))", types.resolve(StandardBasicTypes.FLOAT));
+    }
+}
@@ -0,0 +1,18 @@
+package me.astroreen.liblanka.domain.product.config;
+
+import me.astroreen.liblanka.domain.product.storage.ImageStore;
+import me.astroreen.liblanka.domain.product.storage.LocalFileSystemImageStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+@Configuration
+public class ImageStoreConfiguration {
+
+    @Bean
+    public ImageStore imageStore(@Value("${liblanka.images.storage-path}") Path storagePath) {
+        return new LocalFileSystemImageStore(storagePath);
+    }
+}
@@ -0,0 +1,18 @@
+package me.astroreen.liblanka.domain.product.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Enables the in-process caches of the product domain. They are Caffeine caches, bounded in size and age by
+ * {@code spring.cache.caffeine.spec}, and report hits, misses and evictions as {@code cache.*} metrics.
+ * The cache is consulted before a transaction is begun, so hits never take a database connection.
+ */
+@Configuration
+@EnableCaching(order = Ordered.HIGHEST_PRECEDENCE)
+public class ProductCacheConfiguration {
+
+    /** Product detail responses by product id, see {@link me.astroreen.liblanka.domain.product.service.ProductDetailsCacheInvalidator}. */
+    public static final String PRODUCT_DETAILS = "productDetails";
+}
@@ -5,28 +5,43 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import me.astroreen.liblanka.domain.product.dto.FacetedPage;
 import me.astroreen.liblanka.domain.product.dto.ImageMetadataDto;
 import me.astroreen.liblanka.domain.product.dto.ProductCardDto;
+import me.astroreen.liblanka.domain.product.dto.ProductCardSliceDto;
 import me.astroreen.liblanka.domain.product.dto.ProductConstructionInfoDto;
+import me.astroreen.liblanka.domain.product.dto.ProductCursor;
 import me.astroreen.liblanka.domain.product.dto.ProductDto;
+import me.astroreen.liblanka.domain.product.dto.ProductFileFormat;
+import me.astroreen.liblanka.domain.product.dto.ProductImportResultDto;
+import me.astroreen.liblanka.domain.product.dto.ProductImportRow;
+import me.astroreen.liblanka.domain.product.dto.ProductSortOrder;
+import me.astroreen.liblanka.domain.product.dto.ProductSuggestionDto;
 import me.astroreen.liblanka.domain.product.entity.Product;
 import me.astroreen.liblanka.domain.product.entity.specifications.ProductSpecifications;
+import me.astroreen.liblanka.domain.product.service.ProductExportService;
+import me.astroreen.liblanka.domain.product.service.ProductImportService;
 import me.astroreen.liblanka.domain.product.service.ProductService;
+import me.astroreen.liblanka.domain.product.service.ProductSuggestIndex;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.util.CollectionUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +56,9 @@ import java.util.Arrays;
 public class ProductController {
 
     private final ProductService productService;
+    private final ProductSuggestIndex productSuggestIndex;
+    private final ProductImportService productImportService;
+    private final ProductExportService productExportService;
     private final Logger logger = Logger.getLogger(getClass().getName());
 
     @GetMapping("/information")
@@ -49,7 +67,6 @@ public class ProductController {
         return ResponseEntity.ok(answer);
     }
 
-    @Transactional
     @GetMapping("/{id}")
     public ResponseEntity<ProductDto> getProduct(@PathVariable Long id) {
         if(id == null || id < 0) return ResponseEntity.badRequest().build();
@@ -61,71 +78,137 @@ public class ProductController {
         }
     }
 
+    /**
+     * Autocompletes product and type names from memory, meant to be called on every keystroke.
+     */
+    @GetMapping("/suggest")
+    public ResponseEntity<List<ProductSuggestionDto>> suggest(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "10") int limit
+    ) {
+        if (limit <= 0 || limit > 20) limit = 10;
+        return ResponseEntity.ok(productSuggestIndex.suggest(q, limit));
+    }
+
     @Transactional
     @GetMapping("/filter")
     public ResponseEntity<Page<ProductCardDto>> filterProducts(
             @RequestParam(required = false) String name,
+            @RequestParam(required = false) String search,
             @RequestParam(required = false) Long typeId,
             @RequestParam(required = false) List<Long> sizeIds,
             @RequestParam(required = false) List<Long> colorIds,
             @RequestParam(required = false) BigDecimal minPrice,
             @RequestParam(required = false) BigDecimal maxPrice,
+            @RequestParam(required = false) String sort,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "false") boolean facets
     ) {
         // Validate input parameters
         if (size <= 0 || size > 100) size = 20;
         if (page < 0) page = 0;
-        if (typeId != null && typeId < 0) return ResponseEntity.badRequest().build();
-        if (sizeIds != null && sizeIds.stream().anyMatch(id -> id < 0)) return ResponseEntity.badRequest().build();
-        if (colorIds != null && colorIds.stream().anyMatch(id -> id < 0)) return ResponseEntity.badRequest().build();
-        if (minPrice != null && minPrice.compareTo(BigDecimal.ZERO) < 0) return ResponseEntity.badRequest().build();
-        if (maxPrice != null && maxPrice.compareTo(BigDecimal.ZERO) < 0) return ResponseEntity.badRequest().build();
-        if (minPrice != null && maxPrice != null && minPrice.compareTo(maxPrice) > 0) {
+        ProductSpecifications.Filter filter = createFilter(name, search, typeId, sizeIds, colorIds, minPrice, maxPrice);
+        if (filter == null) return ResponseEntity.badRequest().build();
+
+        // Create pageable, without a sort order search results come best match first and everything else by id
+        Pageable pageable;
+        try {
+            pageable = sort == null || sort.isBlank()
+                    ? PageRequest.of(page, size)
+                    : PageRequest.of(page, size, ProductSortOrder.fromParam(sort).getSort());
+        } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().build();
         }
 
-        // Trim name (forgive errors)
-        if(name != null) name = name.trim();
-
-        // Create specification
-        Specification<Product> spec = ProductSpecifications.filterBy(
-                ProductSpecifications.Filter.builder()
-                        .nameLike(name)
-                        .typeId(typeId)
-                        .sizeIds(sizeIds)
-                        .colorIds(colorIds)
-                        .minPrice(minPrice)
-                        .maxPrice(maxPrice)
-                        .build()
-        );
+        // Get filtered products as cards, images are only referenced so that the client can load them
+        // from the cacheable image endpoint
+        Page<ProductCardDto> cards = productService.findCards(filter, pageable);
+        cards.forEach(ProductController::addImageUrl);
+        // Counts per type, color, size and price range for the filter sidebar
+        if (facets) cards = new FacetedPage<>(cards, productService.countFacets(filter));
+        return ResponseEntity.ok(cards);
+    }
 
-        // Create pageable
-        Pageable pageable = PageRequest.of(page, size);
+    /**
+     * Cursor based variant of the filter for infinite scrolling, selected by passing {@code after}.
+     * <p>
+     * The first slice is requested with an empty {@code after}, every further one with the {@code nextCursor}
+     * of the previous response, together with the same {@code sort}. Products are returned in the requested
+     * {@link ProductSortOrder}, by id if there is none, and each slice costs the same no matter how deep into the
+     * listing it is. The total number of matches is only counted when {@code count} is set,
+     * the number of matches per filter option only when {@code facets} is set.
+     * </p>
+     */
+    @Transactional
+    @GetMapping(value = "/filter", params = "after")
+    public ResponseEntity<ProductCardSliceDto> scrollProducts(
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String search,
+            @RequestParam(required = false) Long typeId,
+            @RequestParam(required = false) List<Long> sizeIds,
+            @RequestParam(required = false) List<Long> colorIds,
+            @RequestParam(required = false) BigDecimal minPrice,
+            @RequestParam(required = false) BigDecimal maxPrice,
+            @RequestParam(defaultValue = "id") String sort,
+            @RequestParam String after,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "false") boolean count,
+            @RequestParam(defaultValue = "false") boolean facets
+    ) {
+        if (size <= 0 || size > 100) size = 20;
+        ProductSpecifications.Filter filter = createFilter(name, search, typeId, sizeIds, colorIds, minPrice, maxPrice);
+        if (filter == null) return ResponseEntity.badRequest().build();
 
-        // Get filtered products
-        Page<Product> products = productService.findAll(spec, pageable);
+        ProductSortOrder order;
+        Slice<ProductCardDto> cards;
+        try {
+            order = ProductSortOrder.fromParam(sort);
+            ProductCursor cursor = after.isBlank() ? null : ProductCursor.decode(after);
+            cards = productService.findCardsAfter(filter, cursor, order, size);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        cards.forEach(ProductController::addImageUrl);
+        String nextCursor = cards.hasNext() ? ProductCursor.after(cards.getContent().getLast(), order).encode() : null;
 
-        // Convert to DTOs
-        Page<ProductCardDto> productDtos = products.map(product -> {
-            String imageData = null;
-            if (!CollectionUtils.isEmpty(product.getImages())) {
-                byte[] firstImageData = product.getImages().getLast().getImageData();
-                if (firstImageData != null && firstImageData.length > 0) {
-                    imageData = Base64.getEncoder().encodeToString(firstImageData);
-                }
-            }
+        return ResponseEntity.ok(ProductCardSliceDto.builder()
+                .content(cards.getContent())
+                .hasNext(cards.hasNext())
+                .nextCursor(nextCursor)
+                .totalElements(count ? productService.count(filter) : null)
+                .facets(facets ? productService.countFacets(filter) : null)
+                .build());
+    }
+
+    // Returns null if the filter parameters are invalid
+    private static ProductSpecifications.Filter createFilter(
+            String name, String search, Long typeId, List<Long> sizeIds, List<Long> colorIds,
+            BigDecimal minPrice, BigDecimal maxPrice
+    ) {
+        if (typeId != null && typeId < 0) return null;
+        if (sizeIds != null && sizeIds.stream().anyMatch(id -> id < 0)) return null;
+        if (colorIds != null && colorIds.stream().anyMatch(id -> id < 0)) return null;
+        if (minPrice != null && minPrice.compareTo(BigDecimal.ZERO) < 0) return null;
+        if (maxPrice != null && maxPrice.compareTo(BigDecimal.ZERO) < 0) return null;
+        if (minPrice != null && maxPrice != null && minPrice.compareTo(maxPrice) > 0) return null;
 
-            return ProductCardDto.builder()
-                    .id(product.getId())
-                    .name(product.getName())
-                    .description(product.getDescription())
-                    .price(product.getPrice())
-                    .imageData(imageData)
-                    .build();
-        });
+        // Trim name (forgive errors)
+        if (name != null) name = name.trim();
+
+        return ProductSpecifications.Filter.builder()
+                .nameLike(name)
+                .search(search)
+                .typeId(typeId)
+                .sizeIds(sizeIds)
+                .colorIds(colorIds)
+                .minPrice(minPrice)
+                .maxPrice(maxPrice)
+                .build();
+    }
 
-        return ResponseEntity.ok(productDtos);
+    private static void addImageUrl(ProductCardDto card) {
+        if (card.getImageId() != null) card.setImageUrl(imageUrl(card.getImageId()));
     }
 
     @PreAuthorize("isAuthenticated() and hasRole('ADMIN')")
@@ -193,6 +276,57 @@ public class ProductController {
         }
     }
 
+    /**
+     * Creates products from a CSV file with a header row, one product per line, see {@link ProductImportRow}.
+     * The file is imported while it is uploaded, rows that can not be imported are reported by line.
+     * Images are not part of the import, they are added through the regular update.
+     */
+    @PreAuthorize("isAuthenticated() and hasRole('ADMIN')")
+    @PostMapping(value = "/import", consumes = "text/csv")
+    public ResponseEntity<ProductImportResultDto> importCsv(InputStream content) throws IOException {
+        return ResponseEntity.ok(productImportService.importProducts(content, ProductFileFormat.CSV));
+    }
+
+    /**
+     * Same as {@link #importCsv(InputStream)} for a file with one JSON object per line.
+     */
+    @PreAuthorize("isAuthenticated() and hasRole('ADMIN')")
+    @PostMapping(value = "/import", consumes = "application/x-ndjson")
+    public ResponseEntity<ProductImportResultDto> importNdjson(InputStream content) throws IOException {
+        return ResponseEntity.ok(productImportService.importProducts(content, ProductFileFormat.NDJSON));
+    }
+
+    /**
+     * Streams the whole catalog as a file in the format the import reads, for marketplace feeds and backups.
+     * The response is written while the products are read, so it starts right away and takes the same memory
+     * for any number of products.
+     */
+    @PreAuthorize("isAuthenticated() and hasRole('ADMIN')")
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportProducts(@RequestParam(defaultValue = "ndjson") String format) {
+        ProductFileFormat fileFormat;
+        try {
+            fileFormat = ProductFileFormat.fromParam(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.ok()
+                .contentType(fileFormat.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename("products." + fileFormat.getParam())
+                        .build()
+                        .toString())
+                .body(out -> productExportService.export(out, fileFormat));
+    }
+
+    private static String imageUrl(Long imageId) {
+        return ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/storage/products/images/{id}")
+                .buildAndExpand(imageId)
+                .toUriString();
+    }
+
     // Supported image MIME types and extensions for webp conversion
     private static final String[] SUPPORTED_IMAGE_TYPES = {
             "image/jpeg",
@@ -271,6 +405,8 @@ public class ProductController {
             );
             
             return ResponseEntity.ok(updated);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build(); // unknown color or size, malformed numbers
         } catch (Exception e) {
             logger.log(Level.WARNING, e.getMessage());
             return ResponseEntity.internalServerError().build();
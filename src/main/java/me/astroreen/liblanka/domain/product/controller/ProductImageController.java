@@ -1,35 +1,85 @@
 package me.astroreen.liblanka.domain.product.controller;
 
 import lombok.RequiredArgsConstructor;
+import me.astroreen.liblanka.domain.product.entity.ProductImage;
 import me.astroreen.liblanka.domain.product.service.ProductImageService;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.time.Duration;
+
 @RestController
 @RequestMapping("/storage/products/images")
 @RequiredArgsConstructor
 public class ProductImageController {
 
+    private static final MediaType IMAGE_WEBP = MediaType.parseMediaType("image/webp");
+    // Image content never changes under the same hash, so clients may keep it as long as they want
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
+
+    // Client hints carrying the width the image is going to be displayed at, in physical pixels
+    private static final String WIDTH_HINT = "Sec-CH-Width";
+    private static final String LEGACY_WIDTH_HINT = "Width";
+    private static final String ACCEPT_CH = "Accept-CH";
+
     private final ProductImageService productImageService;
 
-    @PreAuthorize("isAuthenticated() and hasRole('ADMIN')")
+    /**
+     * Streams the stored webp image.
+     * <p>
+     * The served size is taken from the {@code w} parameter or, if absent, from the {@code Sec-CH-Width} client hint;
+     * without either the full size image is returned. The content hash of the chosen rendition is used as a strong
+     * ETag, so Spring answers a matching {@code If-None-Match} with {@code 304 Not Modified} without touching the file,
+     * and {@code Range} requests with {@code 206 Partial Content}.
+     * </p>
+     */
     @GetMapping("/{id}")
-    public ResponseEntity<byte[]> getImage(@PathVariable(name = "id") Long imageId) {
+    public ResponseEntity<Resource> getImage(
+            @PathVariable(name = "id") Long imageId,
+            @RequestParam(name = "w", required = false) Integer width,
+            @RequestHeader(name = WIDTH_HINT, required = false) String widthHint,
+            @RequestHeader(name = LEGACY_WIDTH_HINT, required = false) String legacyWidthHint
+    ) {
+        if (width != null && width <= 0) return ResponseEntity.badRequest().build();
+
+        boolean hinted = width == null;
+        if (hinted) width = parseWidthHint(widthHint != null ? widthHint : legacyWidthHint);
+
         try {
-            byte[] imageData = productImageService.getImageData(imageId);
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType("image/webp"));
-            headers.setContentLength(imageData.length);
-            return new ResponseEntity<>(imageData, headers, HttpStatus.OK);
+            ProductImage image = productImageService.findById(imageId);
+            String contentHash = productImageService.selectContentHash(image, width);
+            Resource content = productImageService.getImageResource(image, contentHash);
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .eTag(contentHash)
+                    .cacheControl(IMMUTABLE)
+                    .contentType(IMAGE_WEBP)
+                    .header(ACCEPT_CH, WIDTH_HINT);
+            // Shared caches must not hand a rendition picked for one screen to another
+            if (hinted) response.header(HttpHeaders.VARY, WIDTH_HINT, LEGACY_WIDTH_HINT);
+            return response.body(content);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.notFound().build();
         }
     }
+
+    // Client hints are best effort, a malformed one is treated as absent
+    private static Integer parseWidthHint(String hint) {
+        if (hint == null || hint.isBlank()) return null;
+        try {
+            int width = (int) Math.ceil(Double.parseDouble(hint.trim()));
+            return width > 0 ? width : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 }
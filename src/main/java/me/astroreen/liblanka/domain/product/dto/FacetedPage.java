@@ -0,0 +1,19 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import lombok.Getter;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+
+/**
+ * Page of filter results that also carries the facet counts of the whole result set.
+ */
+@Getter
+public class FacetedPage<T> extends PageImpl<T> {
+
+    private final ProductFacetsDto facets;
+
+    public FacetedPage(Page<T> page, ProductFacetsDto facets) {
+        super(page.getContent(), page.getPageable(), page.getTotalElements());
+        this.facets = facets;
+    }
+}
@@ -0,0 +1,18 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PriceBucketDto {
+    private BigDecimal minPrice; // inclusive
+    private BigDecimal maxPrice; // exclusive, null for the most expensive bucket
+    private long count;
+}
@@ -16,5 +16,9 @@ public class ProductCardDto {
     private String name;
     private String description;
     private BigDecimal price;
-    private String imageData; // base64 encoded image data
-} 
\ No newline at end of file
+    private Long imageId;
+    private String imageUrl;
+    private Integer imageWidth;
+    private Integer imageHeight;
+    private String imagePlaceholder; // data URI of a tiny, blurry preview of the image
+}
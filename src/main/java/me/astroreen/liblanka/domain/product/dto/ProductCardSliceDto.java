@@ -0,0 +1,20 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductCardSliceDto {
+    private List<ProductCardDto> content;
+    private boolean hasNext;
+    private String nextCursor; // pass as "after" to get the next slice, null on the last one
+    private Long totalElements; // only counted on request
+    private ProductFacetsDto facets; // only counted on request
+}
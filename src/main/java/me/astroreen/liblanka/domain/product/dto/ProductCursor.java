@@ -0,0 +1,81 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in a keyset paginated product listing: the sort key of the last product a client has seen.
+ * <p>
+ * Clients only ever get the opaque {@link #encode() encoded} form and pass it back unchanged to continue
+ * where they left off, so the format can change without breaking them. The cursor remembers the order it was
+ * created for, since the sort key means nothing in any other.
+ * </p>
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class ProductCursor {
+
+    private static final char SEPARATOR = ':';
+
+    private final @NotNull ProductSortOrder order;
+    private final long lastId;
+    private final @Nullable BigDecimal lastPrice;
+    private final @Nullable String lastName;
+
+    /**
+     * @return the position right after the given card in a listing of the given order
+     */
+    public static @NotNull ProductCursor after(@NotNull ProductCardDto card, @NotNull ProductSortOrder order) {
+        return switch (order) {
+            case ID, NEWEST -> new ProductCursor(order, card.getId(), null, null);
+            case PRICE_ASC, PRICE_DESC -> new ProductCursor(order, card.getId(), card.getPrice(), null);
+            case NAME -> new ProductCursor(order, card.getId(), null, card.getName());
+        };
+    }
+
+    // <order>:<id>[:<key>], the key comes last because a name may contain the separator
+    public @NotNull String encode() {
+        String decoded = order.getParam() + SEPARATOR + lastId;
+        if (lastPrice != null) decoded += SEPARATOR + lastPrice.toPlainString();
+        if (lastName != null) decoded += SEPARATOR + lastName;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(decoded.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token was not produced by {@link #encode()}
+     */
+    public static @NotNull ProductCursor decode(@NotNull String token) throws IllegalArgumentException {
+        String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        int orderEnd = decoded.indexOf(SEPARATOR);
+        if (orderEnd < 0) {
+            throw new IllegalArgumentException("Malformed product cursor " + token);
+        }
+        ProductSortOrder order = ProductSortOrder.fromParam(decoded.substring(0, orderEnd));
+        int idEnd = decoded.indexOf(SEPARATOR, orderEnd + 1);
+        // NumberFormatException is an IllegalArgumentException as well
+        long lastId = Long.parseLong(idEnd < 0 ? decoded.substring(orderEnd + 1) : decoded.substring(orderEnd + 1, idEnd));
+        String key = idEnd < 0 ? null : decoded.substring(idEnd + 1);
+
+        return switch (order) {
+            case ID, NEWEST -> {
+                if (key != null) throw new IllegalArgumentException("Malformed product cursor " + token);
+                yield new ProductCursor(order, lastId, null, null);
+            }
+            case PRICE_ASC, PRICE_DESC -> {
+                if (key == null) throw new IllegalArgumentException("Malformed product cursor " + token);
+                yield new ProductCursor(order, lastId, new BigDecimal(key), null);
+            }
+            case NAME -> {
+                if (key == null) throw new IllegalArgumentException("Malformed product cursor " + token);
+                yield new ProductCursor(order, lastId, null, key);
+            }
+        };
+    }
+}
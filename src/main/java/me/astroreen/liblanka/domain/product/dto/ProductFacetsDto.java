@@ -0,0 +1,23 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Number of products each filter option would leave, for showing next to the options, e.g. "Red (12)".
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductFacetsDto {
+    private Map<Long, Long> types; // type id -> products
+    private Map<Long, Long> colors; // color id -> products
+    private Map<Long, Long> sizes; // size id -> products
+    private List<PriceBucketDto> prices; // cheapest bucket first
+}
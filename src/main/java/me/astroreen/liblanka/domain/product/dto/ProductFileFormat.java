@@ -0,0 +1,36 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.http.MediaType;
+
+/**
+ * Formats of product import and export files, both hold one {@link ProductImportRow} per line.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum ProductFileFormat {
+
+    /**
+     * Comma separated values with a header row, list columns hold their entries separated by {@code ;}.
+     * A {@code ;} or {@code \} inside an entry is escaped with {@code \}.
+     */
+    CSV("csv", new MediaType("text", "csv")),
+    /** One JSON object per line. */
+    NDJSON("ndjson", new MediaType("application", "x-ndjson"));
+
+    /** The value of the {@code format} request parameter, also used as file extension. */
+    private final String param;
+    private final MediaType mediaType;
+
+    /**
+     * @throws IllegalArgumentException if no format is selected by the parameter
+     */
+    public static @NotNull ProductFileFormat fromParam(@NotNull String param) throws IllegalArgumentException {
+        for (ProductFileFormat format : values()) {
+            if (format.param.equalsIgnoreCase(param)) return format;
+        }
+        throw new IllegalArgumentException("Unknown product file format " + param);
+    }
+}
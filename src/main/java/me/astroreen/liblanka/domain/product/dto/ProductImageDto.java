@@ -3,6 +3,7 @@ package me.astroreen.liblanka.domain.product.dto;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Setter;
+import me.astroreen.liblanka.domain.product.entity.ProductImageStatus;
 
 @Getter
 @Setter
@@ -12,4 +13,5 @@ public class ProductImageDto {
     private Long productId;
     private Long colorId;
     private String imageId;
+    private ProductImageStatus status; // only READY images can be loaded
 }
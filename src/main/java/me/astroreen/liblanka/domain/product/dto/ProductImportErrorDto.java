@@ -0,0 +1,15 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductImportErrorDto {
+    private long line; // of the import file, the CSV header is line 1
+    private String message;
+}
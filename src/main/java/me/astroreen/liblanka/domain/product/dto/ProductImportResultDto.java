@@ -0,0 +1,19 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductImportResultDto {
+    private long imported;
+    private long failed;
+    private List<ProductImportErrorDto> errors; // the first rows that failed, in file order
+    private boolean errorsTruncated; // more rows failed than are listed
+}
@@ -0,0 +1,34 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * One product of a bulk import or export, a line of the CSV or NDJSON file. Type, colors and sizes are referenced
+ * by name, so an export can be imported into another database.
+ */
+@JsonPropertyOrder({"name", "type", "description", "price", "attributes", "variants"}) // CSV column order
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductImportRow {
+
+    /**
+     * Separates color, size and quantity of a variant, a {@code :} or {@code \} inside a name is escaped with {@code \}.
+     */
+    public static final char VARIANT_SEPARATOR = ':';
+
+    private String name;
+    private String type;
+    private String description;
+    private BigDecimal price;
+    private List<String> attributes;
+    private List<String> variants; // "color:size:quantity", e.g. "Red:M:3"
+}
@@ -0,0 +1,36 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.Sort;
+
+/**
+ * The orders a product listing can be requested in. Each ends with the id, so products with the same price or name
+ * keep their position between pages, and each is backed by an index on the sorted columns followed by the id.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum ProductSortOrder {
+
+    /** Oldest first, the default order of keyset pagination. */
+    ID("id", Sort.by(Sort.Direction.ASC, "id")),
+    NEWEST("newest", Sort.by(Sort.Direction.DESC, "id")),
+    PRICE_ASC("price_asc", Sort.by(Sort.Direction.ASC, "price", "id")),
+    PRICE_DESC("price_desc", Sort.by(Sort.Direction.DESC, "price", "id")),
+    NAME("name", Sort.by(Sort.Direction.ASC, "name", "id"));
+
+    /** The value of the {@code sort} request parameter that selects this order. */
+    private final String param;
+    private final Sort sort;
+
+    /**
+     * @throws IllegalArgumentException if no order is selected by the parameter
+     */
+    public static @NotNull ProductSortOrder fromParam(@NotNull String param) throws IllegalArgumentException {
+        for (ProductSortOrder order : values()) {
+            if (order.param.equalsIgnoreCase(param)) return order;
+        }
+        throw new IllegalArgumentException("Unknown product sort order " + param);
+    }
+}
@@ -0,0 +1,16 @@
+package me.astroreen.liblanka.domain.product.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductSuggestionDto {
+    private String text;
+    private Long productId; // set if a product name was suggested
+    private Long typeId; // set if a type name was suggested
+}
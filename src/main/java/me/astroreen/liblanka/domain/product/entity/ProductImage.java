@@ -4,6 +4,10 @@ import jakarta.annotation.Nullable;
 import jakarta.persistence.*;
 import lombok.*;
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonManagedReference;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Entity
 @Builder
@@ -12,23 +16,47 @@ import com.fasterxml.jackson.annotation.JsonBackReference;
 @Getter
 @Setter
 @Table(name = "product_images")
-@ToString(exclude = {"imageData"}) // prevent flood in my console!
+@ToString(exclude = {"product", "renditions"})
 public class ProductImage {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "product_images_seq")
+    @SequenceGenerator(name = "product_images_seq", sequenceName = "product_images_seq", allocationSize = 50)
     private Long id;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY) // serving an image needs nothing of its product
     @JoinColumn(name = "product_id", nullable = false)
     @JsonBackReference
     private Product product;
 
-    @Lob
-    @Column(name = "image_data", nullable = false, columnDefinition = "blob")
-    private byte[] imageData;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    @Builder.Default
+    private ProductImageStatus status = ProductImageStatus.PENDING;
+
+    @Column(name = "source_hash", length = 64)
+    private String sourceHash; // key of the uploaded original in the ImageStore
+
+    @Column(name = "content_hash", length = 64)
+    private String contentHash; // key of the webp bytes in the ImageStore, set once READY
+
+    @Column(name = "content_length")
+    private Long contentLength;
+
+    private Integer width;
+
+    private Integer height;
+
+    @Column(columnDefinition = "TEXT")
+    private String placeholder; // tiny webp data URI shown while the real image loads
 
     @ManyToOne
     @JoinColumn(name = "color_id", nullable = true)
     @Nullable
     private ProductColor color; // can be null
+
+    @OneToMany(mappedBy = "image", cascade = CascadeType.ALL, orphanRemoval = true)
+    @OrderBy("width ASC")
+    @JsonManagedReference
+    @Builder.Default
+    private List<ProductImageRendition> renditions = new ArrayList<>(); // smaller copies, narrowest first
 }
@@ -0,0 +1,41 @@
+package me.astroreen.liblanka.domain.product.entity;
+
+import com.fasterxml.jackson.annotation.JsonBackReference;
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * A downscaled copy of a {@link ProductImage}, generated at upload time so that small screens
+ * and catalog grids do not have to download the full resolution image.
+ */
+@Entity
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Table(name = "product_image_rendition")
+@ToString(exclude = {"image"})
+public class ProductImageRendition {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "product_image_rendition_seq")
+    @SequenceGenerator(name = "product_image_rendition_seq", sequenceName = "product_image_rendition_seq", allocationSize = 50)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "image_id", nullable = false)
+    @JsonBackReference
+    private ProductImage image;
+
+    @Column(nullable = false)
+    private Integer width;
+
+    @Column(nullable = false)
+    private Integer height;
+
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash; // key of the webp bytes in the ImageStore
+
+    @Column(name = "content_length", nullable = false)
+    private Long contentLength;
+}
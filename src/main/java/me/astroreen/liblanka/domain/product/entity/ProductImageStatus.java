@@ -0,0 +1,7 @@
+package me.astroreen.liblanka.domain.product.entity;
+
+public enum ProductImageStatus {
+    PENDING, // uploaded, waiting for webp conversion
+    READY,
+    FAILED   // the upload could not be converted
+}
@@ -0,0 +1,22 @@
+package me.astroreen.liblanka.domain.product.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.Immutable;
+
+/**
+ * The full text search document of a {@link Product}, mapped to the same row as the product itself.
+ * Kept out of {@link Product} so that loading products never transfers it, search criteria reach it by id.
+ */
+@Entity
+@Immutable
+@NoArgsConstructor
+@Getter
+@Table(name = "product")
+public class ProductSearchDocument {
+    @Id
+    private Long id;
+
+    @Column(name = "search_vector", insertable = false, updatable = false)
+    private String searchVector; // tsvector generated by the database from name, description and attributes
+}
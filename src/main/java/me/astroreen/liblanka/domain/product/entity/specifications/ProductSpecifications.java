@@ -1,16 +1,22 @@
 package me.astroreen.liblanka.domain.product.entity.specifications;
 
+import jakarta.persistence.criteria.Path;
 import lombok.Builder;
 import lombok.Data;
 import lombok.experimental.UtilityClass;
+import me.astroreen.liblanka.domain.product.dto.ProductCursor;
 import me.astroreen.liblanka.domain.product.entity.Product;
+import me.astroreen.liblanka.domain.product.entity.ProductSearchDocument;
 import me.astroreen.liblanka.domain.product.entity.ProductVariant;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.data.jpa.domain.Specification;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @UtilityClass
 public class ProductSpecifications {
@@ -22,26 +28,82 @@ public class ProductSpecifications {
     private static final String PRICE = "price";
     private static final String PRODUCT = "product";
     private static final String ID = "id";
+    private static final String SEARCH_VECTOR = "searchVector";
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
 
     @Data
-    @Builder
+    @Builder(toBuilder = true)
     public static class Filter {
         private String nameLike;
+        private String search; // words to find in name, description and attributes
         private Long typeId;
         private List<Long> sizeIds;
         private List<Long> colorIds;
         private BigDecimal minPrice;
         private BigDecimal maxPrice;
+        private Collection<Long> productIds; // products matching the type, size and color filters, null to query them
+
+        /**
+         * Tells whether the filter has criteria beyond the type, sizes and colors, which can only be checked
+         * by the database.
+         */
+        public boolean hasAttributeCriteria() {
+            return (nameLike != null && !nameLike.isBlank()) || toPrefixQuery(search) != null
+                    || minPrice != null || maxPrice != null;
+        }
     }
 
+    /**
+     * Builds the database part of the filter. Type, sizes and colors are usually resolved to
+     * {@link Filter#getProductIds() product ids} beforehand, see
+     * {@link me.astroreen.liblanka.domain.product.service.ProductFacetIndex ProductFacetIndex}. Without ids they are
+     * queried with subqueries on the variants, which is what a broad facet matching too many ids to list needs.
+     */
     public static @NotNull Specification<Product> filterBy(@NotNull Filter filter) {
-        return Specification.where(hasNameLike(filter.getNameLike()))
-                .and(hasTypeId(filter.getTypeId()))
-                .and(hasSizeIds(filter.getSizeIds()))
-                .and(hasColorIds(filter.getColorIds()))
+        Specification<Product> facets = filter.getProductIds() != null
+                ? hasIdIn(filter.getProductIds())
+                : hasTypeId(filter.getTypeId())
+                        .and(hasSizeIds(filter.getSizeIds()))
+                        .and(hasColorIds(filter.getColorIds()));
+        return Specification.where(facets)
+                .and(hasNameLike(filter.getNameLike()))
+                .and(matchesSearch(filter.getSearch()))
                 .and(hasPriceRange(filter.getMinPrice(), filter.getMaxPrice()));
     }
 
+    @Contract(pure = true)
+    public static @NotNull Specification<Product> hasIdIn(Collection<Long> productIds) {
+        return (root, query, cb) -> {
+            if (productIds == null) return cb.conjunction();
+            if (productIds.isEmpty()) return cb.disjunction();
+            return root.get(ID).in(productIds);
+        };
+    }
+
+    /**
+     * Restricts a listing to the products after the cursor in the cursor's order, which lets the database seek
+     * straight to them through the index of that order instead of skipping an offset.
+     */
+    @Contract(pure = true)
+    public static @NotNull Specification<Product> after(@NotNull ProductCursor cursor) {
+        return (root, query, cb) -> {
+            Path<Long> id = root.get(ID);
+            long lastId = cursor.getLastId();
+            // The bound on the sort key alone is what gives the planner an index range to scan,
+            // the disjunction only drops the rows sharing the last key that were already returned
+            return switch (cursor.getOrder()) {
+                case ID -> cb.greaterThan(id, lastId);
+                case NEWEST -> cb.lessThan(id, lastId);
+                case PRICE_ASC -> cb.and(cb.greaterThanOrEqualTo(root.get(PRICE), cursor.getLastPrice()),
+                        cb.or(cb.greaterThan(root.get(PRICE), cursor.getLastPrice()), cb.greaterThan(id, lastId)));
+                case PRICE_DESC -> cb.and(cb.lessThanOrEqualTo(root.get(PRICE), cursor.getLastPrice()),
+                        cb.or(cb.lessThan(root.get(PRICE), cursor.getLastPrice()), cb.lessThan(id, lastId)));
+                case NAME -> cb.and(cb.greaterThanOrEqualTo(root.get(NAME), cursor.getLastName()),
+                        cb.or(cb.greaterThan(root.get(NAME), cursor.getLastName()), cb.greaterThan(id, lastId)));
+            };
+        };
+    }
+
     @Contract(pure = true)
     private static @NotNull Specification<Product> hasNameLike(String name) {
         return (root, query, cb) ->
@@ -100,6 +162,57 @@ public class ProductSpecifications {
         };
     }
 
+    /**
+     * Orders products by how well they match the search, best first. Leaves the order untouched if there is
+     * nothing to search for. Only meant for offset based listings, keyset pagination relies on id order.
+     */
+    @Contract(pure = true)
+    public static @NotNull Specification<Product> orderBySearchRelevance(String search) {
+        return (root, query, cb) -> {
+            String prefixQuery = toPrefixQuery(search);
+            if (prefixQuery != null && query != null) {
+                var rank = query.subquery(Float.class);
+                var document = rank.from(ProductSearchDocument.class);
+                rank.select(cb.function("fts_rank", Float.class, document.get(SEARCH_VECTOR), cb.literal(prefixQuery)))
+                        .where(cb.equal(document.get(ID), root.get(ID)));
+                query.orderBy(cb.desc(rank));
+            }
+            return cb.conjunction();
+        };
+    }
+
+    // Uses the GIN index on the generated search_vector column
+    @Contract(pure = true)
+    private static @NotNull Specification<Product> matchesSearch(String search) {
+        return (root, query, cb) -> {
+            String prefixQuery = toPrefixQuery(search);
+            if (prefixQuery == null || query == null) return cb.conjunction();
+
+            var subquery = query.subquery(Long.class);
+            var document = subquery.from(ProductSearchDocument.class);
+            subquery.select(document.get(ID))
+                    .where(cb.isTrue(cb.function("fts_match", Boolean.class, document.get(SEARCH_VECTOR), cb.literal(prefixQuery))));
+
+            return root.get(ID).in(subquery);
+        };
+    }
+
+    /**
+     * Turns free text into a tsquery that matches documents containing every word, each also as a prefix,
+     * so results show up while the last word is still being typed. Everything but letters and digits is dropped,
+     * which also keeps tsquery operators in the input from being interpreted.
+     *
+     * @return the tsquery, or null if the text contains no words
+     */
+    private static String toPrefixQuery(String search) {
+        if (search == null) return null;
+        String query = WORD_SEPARATOR.splitAsStream(search.toLowerCase())
+                .filter(word -> !word.isEmpty())
+                .map(word -> word + ":*")
+                .collect(Collectors.joining(" & "));
+        return query.isEmpty() ? null : query;
+    }
+
     @Contract(pure = true)
     private static @NotNull Specification<Product> hasPriceRange(BigDecimal minPrice, BigDecimal maxPrice) {
         return (root, query, cb) -> {
@@ -0,0 +1,24 @@
+package me.astroreen.liblanka.domain.product.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Published whenever products are created, changed or deleted, so that data derived from them can be refreshed
+ * once the change has been committed.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductChangedEvent {
+
+    @Nullable
+    private final Long productId; // null if any number of products may have changed
+
+    @Contract(" -> new")
+    public static @NotNull ProductChangedEvent allProducts() {
+        return new ProductChangedEvent(null);
+    }
+}
@@ -0,0 +1,17 @@
+package me.astroreen.liblanka.domain.product.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Published once pending images of a product have been converted. Only the image status shown in the product
+ * details changes, so unlike {@link ProductChangedEvent} this does not refresh the search indexes.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductImagesConvertedEvent {
+
+    @NotNull
+    private final Long productId;
+}
@@ -0,0 +1,17 @@
+package me.astroreen.liblanka.domain.product.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Published whenever a product type is created or deleted, so that data derived from the types can be refreshed
+ * once the change has been committed.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductTypeChangedEvent {
+
+    @NotNull
+    private final Long typeId;
+}
@@ -0,0 +1,31 @@
+package me.astroreen.liblanka.domain.product.repository;
+
+import me.astroreen.liblanka.domain.product.dto.ProductCardDto;
+import me.astroreen.liblanka.domain.product.entity.Product;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * Reads the catalog cards of products without loading the products themselves.
+ */
+public interface ProductCardRepository {
+
+    /**
+     * Selects the card fields of the matching products together with their cover image, the latest converted one,
+     * in a single query. The image URL is left empty, it depends on the request.
+     *
+     * @param spec   the filter to apply
+     * @param sort   the order of the cards, by {@link Product} properties
+     * @param offset the number of matching products to skip
+     * @param limit  the maximum number of cards to return
+     */
+    @NotNull List<ProductCardDto> findCards(@NotNull Specification<Product> spec, @NotNull Sort sort, long offset, int limit);
+
+    /**
+     * @return the ids of all products matching the specification, unordered
+     */
+    @NotNull List<Long> findIds(@NotNull Specification<Product> spec);
+}
@@ -0,0 +1,102 @@
+package me.astroreen.liblanka.domain.product.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Order;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+import me.astroreen.liblanka.domain.product.dto.ProductCardDto;
+import me.astroreen.liblanka.domain.product.entity.Product;
+import me.astroreen.liblanka.domain.product.entity.ProductImage;
+import me.astroreen.liblanka.domain.product.entity.ProductImageStatus;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProductCardRepositoryImpl implements ProductCardRepository {
+
+    private static final String ID = "id";
+    private static final String NAME = "name";
+    private static final String DESCRIPTION = "description";
+    private static final String PRICE = "price";
+    private static final String IMAGE_ID = "imageId";
+    private static final String WIDTH = "width";
+    private static final String HEIGHT = "height";
+    private static final String PLACEHOLDER = "placeholder";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public @NotNull List<ProductCardDto> findCards(@NotNull Specification<Product> spec, @NotNull Sort sort,
+                                                   long offset, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Product> product = query.from(Product.class);
+
+        // The cover is the latest image that has already been converted
+        Subquery<Long> latestImage = query.subquery(Long.class);
+        Root<ProductImage> image = latestImage.from(ProductImage.class);
+        latestImage.select(cb.max(image.get(ID)))
+                .where(cb.equal(image.get("product"), product),
+                        cb.equal(image.get("status"), ProductImageStatus.READY));
+        Join<Product, ProductImage> cover = product.join("images", JoinType.LEFT);
+        cover.on(cb.equal(cover.get(ID), latestImage));
+
+        query.multiselect(
+                product.get(ID).alias(ID),
+                product.get(NAME).alias(NAME),
+                product.get(DESCRIPTION).alias(DESCRIPTION),
+                product.get(PRICE).alias(PRICE),
+                cover.get(ID).alias(IMAGE_ID),
+                cover.get(WIDTH).alias(WIDTH),
+                cover.get(HEIGHT).alias(HEIGHT),
+                cover.get(PLACEHOLDER).alias(PLACEHOLDER));
+        Predicate predicate = spec.toPredicate(product, query, cb);
+        if (predicate != null) query.where(predicate);
+        // A specification may already have ordered by an expression, e.g. search relevance, the sort comes after it
+        List<Order> orders = new ArrayList<>(query.getOrderList());
+        orders.addAll(QueryUtils.toOrders(sort, product, cb));
+        query.orderBy(orders);
+
+        return entityManager.createQuery(query)
+                .setFirstResult(Math.toIntExact(offset))
+                .setMaxResults(limit)
+                .getResultList().stream()
+                .map(row -> ProductCardDto.builder()
+                        .id(row.get(ID, Long.class))
+                        .name(row.get(NAME, String.class))
+                        .description(row.get(DESCRIPTION, String.class))
+                        .price(row.get(PRICE, BigDecimal.class))
+                        .imageId(row.get(IMAGE_ID, Long.class))
+                        .imageWidth(row.get(WIDTH, Integer.class))
+                        .imageHeight(row.get(HEIGHT, Integer.class))
+                        .imagePlaceholder(row.get(PLACEHOLDER, String.class))
+                        .build())
+                .toList();
+    }
+
+    @Override
+    public @NotNull List<Long> findIds(@NotNull Specification<Product> spec) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<Product> product = query.from(Product.class);
+
+        query.select(product.get(ID));
+        Predicate predicate = spec.toPredicate(product, query, cb);
+        if (predicate != null) query.where(predicate);
+
+        return entityManager.createQuery(query).getResultList();
+    }
+}
@@ -1,9 +1,55 @@
 package me.astroreen.liblanka.domain.product.repository;
 
 import me.astroreen.liblanka.domain.product.entity.ProductImage;
+import me.astroreen.liblanka.domain.product.entity.ProductImageStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface ProductImageRepository extends JpaRepository<ProductImage, Long> {
+
+    @Query("SELECT i.id FROM ProductImage i WHERE i.product.id = :productId AND i.status = :status ORDER BY i.id")
+    List<Long> findIdsByProductIdAndStatus(@Param("productId") Long productId, @Param("status") ProductImageStatus status);
+
+    @Query("SELECT i FROM ProductImage i LEFT JOIN FETCH i.color WHERE i.product.id = :productId ORDER BY i.id")
+    List<ProductImage> findAllWithColorByProductId(@Param("productId") Long productId);
+
+    @Query("SELECT DISTINCT i.product.id FROM ProductImage i WHERE i.status = :status")
+    List<Long> findProductIdsByStatus(@Param("status") ProductImageStatus status);
+
+    /**
+     * Finds an image converted from an upload with exactly the same bytes, whose webp content and renditions
+     * can be shared instead of encoding the upload again.
+     */
+    Optional<ProductImage> findFirstBySourceHashAndStatusOrderByIdAsc(String sourceHash, ProductImageStatus status);
+
+    /**
+     * Tells whether any image still needs the given content, either as converted image, as rendition
+     * or as the original of an image that is still waiting for conversion.
+     */
+    @Query(value = """
+            SELECT EXISTS (SELECT 1 FROM product_images
+                           WHERE content_hash = :hash OR (source_hash = :hash AND status = 'PENDING'))
+                OR EXISTS (SELECT 1 FROM product_image_rendition WHERE content_hash = :hash)
+            """, nativeQuery = true)
+    boolean isContentReferenced(@Param("hash") String hash);
+
+    /**
+     * Locks the given content until the current transaction ends, so it is not deleted while it is checked
+     * for references. Waits for uploads and conversions that hold {@link #lockContentShared(String)}.
+     */
+    @Query(value = "SELECT true FROM pg_advisory_xact_lock(hashtext(:hash))", nativeQuery = true)
+    boolean lockContent(@Param("hash") String hash);
+
+    /**
+     * Locks the given content until the current transaction ends, so it is not deleted before the images
+     * referencing it are committed. Any number of transactions may hold this lock for the same content at once.
+     */
+    @Query(value = "SELECT true FROM pg_advisory_xact_lock_shared(hashtext(:hash))", nativeQuery = true)
+    boolean lockContentShared(@Param("hash") String hash);
 }
@@ -1,22 +1,70 @@
 package me.astroreen.liblanka.domain.product.repository;
 
+import jakarta.persistence.QueryHint;
 import me.astroreen.liblanka.domain.product.entity.Product;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface ProductRepository extends JpaRepository<Product, Long>, JpaSpecificationExecutor<Product> {
+public interface ProductRepository extends JpaRepository<Product, Long>, JpaSpecificationExecutor<Product>,
+        ProductCardRepository {
     
     List<Product> findByTypeId(Long typeId);
+
+    /**
+     * Loads a product for its detail page together with its type and its variants with their colors and sizes,
+     * in a single query. The images are a second collection and can not be fetched in the same query without
+     * multiplying the rows, see {@link ProductImageRepository#findAllWithColorByProductId(Long)}.
+     */
+    @EntityGraph(attributePaths = {"type", "variants", "variants.color", "variants.size"})
+    @Query("SELECT p FROM Product p WHERE p.id = :id")
+    Optional<Product> findDetailsById(@Param("id") Long id);
     
     @Query("SELECT DISTINCT p FROM Product p JOIN p.variants v WHERE v.color.id = :colorId")
     List<Product> findByColorId(@Param("colorId") Long colorId);
     
     @Query("SELECT DISTINCT p FROM Product p JOIN p.variants v WHERE v.size.id = :sizeId")
     List<Product> findBySizeId(@Param("sizeId") Long sizeId);
+
+    /**
+     * @return pairs of product id and name for every product
+     */
+    @Query("SELECT p.id, p.name FROM Product p")
+    List<Object[]> findAllNames();
+
+    @Query("SELECT p.name FROM Product p WHERE p.id = :id")
+    Optional<String> findNameById(@Param("id") Long id);
+
+    /**
+     * Streams id, name, type name, description, price and attributes of every product in id order, through a
+     * database cursor that fetches a few hundred rows at a time. Has to be consumed and closed within a transaction.
+     */
+    @QueryHints({
+            @QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = AvailableHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p.id, p.name, t.name, p.description, p.price, p.attributes FROM Product p JOIN p.type t ORDER BY p.id")
+    Stream<Object[]> streamExportRows();
+
+    /**
+     * @return product id, type id and price of every product
+     */
+    @Query("SELECT p.id, p.type.id, p.price FROM Product p")
+    List<Object[]> findAllFacetValues();
+
+    /**
+     * @return type id and price of the product, or no row if it does not exist
+     */
+    @Query("SELECT p.type.id, p.price FROM Product p WHERE p.id = :id")
+    List<Object[]> findFacetValuesById(@Param("id") Long id);
 }
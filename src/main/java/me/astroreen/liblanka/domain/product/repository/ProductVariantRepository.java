@@ -1,13 +1,17 @@
 package me.astroreen.liblanka.domain.product.repository;
 
+import jakarta.persistence.QueryHint;
 import me.astroreen.liblanka.domain.product.entity.ProductVariant;
+import org.hibernate.jpa.AvailableHints;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface ProductVariantRepository extends JpaRepository<ProductVariant, Long> {
@@ -16,6 +20,30 @@ public interface ProductVariantRepository extends JpaRepository<ProductVariant,
     
     List<ProductVariant> findBySizeId(Long sizeId);
     
+    /**
+     * @return product id, color id and size id of every variant
+     */
+    @Query("SELECT v.product.id, v.color.id, v.size.id FROM ProductVariant v")
+    List<Object[]> findAllFacetIds();
+
+    /**
+     * @return color id and size id of every variant of the product
+     */
+    @Query("SELECT v.color.id, v.size.id FROM ProductVariant v WHERE v.product.id = :productId")
+    List<Object[]> findFacetIdsByProductId(@Param("productId") Long productId);
+
+    /**
+     * Streams product id, color name, size name and quantity of every variant ordered by product id, to be merged with
+     * {@link ProductRepository#streamExportRows()}. Has to be consumed and closed within a transaction.
+     */
+    @QueryHints({
+            @QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = AvailableHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT v.product.id, c.name, s.name, v.quantity FROM ProductVariant v JOIN v.color c JOIN v.size s " +
+            "ORDER BY v.product.id, v.id")
+    Stream<Object[]> streamExportRows();
+
     @Modifying
     @Query("UPDATE ProductVariant v SET v.color.id = :newColorId WHERE v.color.id = :oldColorId")
     void updateColorId(@Param("oldColorId") Long oldColorId, @Param("newColorId") Long newColorId);
@@ -0,0 +1,389 @@
+package me.astroreen.liblanka.domain.product.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import me.astroreen.liblanka.domain.product.entity.Product;
+import me.astroreen.liblanka.domain.product.entity.ProductImage;
+import me.astroreen.liblanka.domain.product.entity.ProductImageRendition;
+import me.astroreen.liblanka.domain.product.entity.ProductImageStatus;
+import me.astroreen.liblanka.domain.product.event.ProductImagesConvertedEvent;
+import me.astroreen.liblanka.domain.product.repository.ProductImageRepository;
+import me.astroreen.liblanka.domain.product.storage.ImageStore;
+import me.astroreen.liblanka.domain.product.storage.StoredImage;
+import me.astroreen.liblanka.domain.product.util.WebpConverter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts uploaded product images to webp and their renditions outside the HTTP request.
+ * <p>
+ * Uploads are stored as {@link ProductImageStatus#PENDING} images referencing the original file. Once the
+ * uploading transaction commits, the product is put on a bounded queue and worked off by a fixed number of
+ * threads, each image switching to {@link ProductImageStatus#READY} (or {@link ProductImageStatus#FAILED})
+ * as soon as it has been converted. The images of one product are encoded in parallel on a pool sized to the CPU
+ * cores. No database connection is held while an image is being encoded.
+ * When the queue is full, the product is queued again as soon as a worker is done, its images stay pending
+ * meanwhile. Uploads never wait for a conversion.
+ * </p>
+ * <p>
+ * Stored files are shared between all images uploaded with the same content. A file counts as referenced as long as
+ * any image row points to it, and is only deleted from the {@link ImageStore} once the last such row is gone.
+ * </p>
+ */
+@Service
+public class ImageTranscodingService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageTranscodingService.class);
+
+    private final ProductImageRepository productImageRepository;
+    private final ImageStore imageStore;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final List<Integer> renditionWidths;
+    private final int maxWidth;
+    private final ThreadPoolExecutor executor;
+    private final ForkJoinPool conversionPool;
+    private final Timer encodeTimer;
+    private final Set<Long> imagesInProgress = ConcurrentHashMap.newKeySet();
+    private final Set<Long> deferredProducts = ConcurrentHashMap.newKeySet(); // did not fit into the queue
+
+    public ImageTranscodingService(ProductImageRepository productImageRepository,
+                                   ImageStore imageStore,
+                                   PlatformTransactionManager transactionManager,
+                                   ApplicationEventPublisher eventPublisher,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${liblanka.images.rendition-widths}") List<Integer> renditionWidths,
+                                   @Value("${liblanka.images.max-width}") int maxWidth,
+                                   @Value("${liblanka.images.transcoding.parallelism}") int parallelism,
+                                   @Value("${liblanka.images.transcoding.queue-capacity}") int queueCapacity,
+                                   @Value("${liblanka.images.transcoding.cpu-threads}") int cpuThreads) {
+        this.productImageRepository = productImageRepository;
+        this.imageStore = imageStore;
+        // Also called from afterCommit callbacks, where joining the finished transaction would lose every update
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.eventPublisher = eventPublisher;
+        this.renditionWidths = renditionWidths;
+        this.maxWidth = maxWidth;
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        // Encoding is CPU bound, more threads than cores would only add memory pressure from decoded images
+        this.conversionPool = new ForkJoinPool(cpuThreads > 0 ? cpuThreads : Runtime.getRuntime().availableProcessors(),
+                ConversionThread::new, null, false);
+
+        Gauge.builder("liblanka.images.transcoding.queue", executor, pool -> pool.getQueue().size())
+                .description("Products waiting for their images to be converted")
+                .register(meterRegistry);
+        Gauge.builder("liblanka.images.transcoding.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Products whose images are being converted right now")
+                .register(meterRegistry);
+        this.encodeTimer = Timer.builder("liblanka.images.transcoding.duration")
+                .description("Time spent converting a single image and its renditions")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues the pending images of the product for conversion once the current transaction has committed,
+     * so that the worker threads can see them.
+     *
+     * @throws IllegalStateException if there is no active transaction
+     */
+    public void transcodeAfterCommit(@NotNull Product product) throws IllegalStateException {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Product images can only be queued for conversion within a transaction");
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submit(product.getId());
+            }
+        });
+    }
+
+    // Picks up images left pending by a previous shutdown
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingImages() {
+        List<Long> productIds = productImageRepository.findProductIdsByStatus(ProductImageStatus.PENDING);
+        if (productIds.isEmpty()) return;
+
+        log.info("Resuming conversion of pending images of {} products", productIds.size());
+        productIds.forEach(this::submit);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Image conversion did not finish in time, remaining images stay pending until the next start");
+            executor.shutdownNow();
+        }
+        conversionPool.shutdownNow();
+    }
+
+    /**
+     * Deletes the given stored files once the current transaction has committed, unless an image still references them.
+     * Meant for the content of images that are removed in that transaction.
+     *
+     * @throws IllegalStateException if there is no active transaction
+     */
+    public void releaseContentAfterCommit(@NotNull Collection<String> hashes) throws IllegalStateException {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Image content can only be released within a transaction");
+        }
+
+        Set<String> released = new HashSet<>(hashes);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                released.forEach(ImageTranscodingService.this::releaseContent);
+            }
+        });
+    }
+
+    // Never converts on the calling thread, that may be a request still holding its connection. Products that do not
+    // fit into the queue keep their images pending and are queued again as soon as a worker is done with another one
+    private void submit(Long productId) {
+        if (execute(productId)) return;
+        if (executor.isShutdown()) return; // pending images are picked up again on the next start
+
+        deferredProducts.add(productId);
+        log.warn("Image conversion queue is full, product {} waits until a worker is free", productId);
+        // Every worker may have finished before the product was added, then none of them would submit it. Trying once
+        // more is enough: if the queue is still full, the tasks in it submit the product once they are done
+        Long deferred = pollDeferred();
+        if (deferred != null && !execute(deferred)) deferredProducts.add(deferred);
+    }
+
+    private void submitDeferred() {
+        Long productId = pollDeferred();
+        if (productId != null) submit(productId);
+    }
+
+    private boolean execute(Long productId) {
+        try {
+            executor.execute(() -> {
+                try {
+                    transcodePendingImages(productId);
+                } finally {
+                    submitDeferred();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private @Nullable Long pollDeferred() {
+        Iterator<Long> deferred = deferredProducts.iterator();
+        while (deferred.hasNext()) {
+            Long productId = deferred.next();
+            if (deferredProducts.remove(productId)) return productId;
+        }
+        return null;
+    }
+
+    private void transcodePendingImages(Long productId) {
+        List<ProductImage> images = new ArrayList<>();
+        for (Long imageId : productImageRepository.findIdsByProductIdAndStatus(productId, ProductImageStatus.PENDING)) {
+            // The same product may be queued several times, every image is converted only once
+            if (!imagesInProgress.add(imageId)) continue;
+
+            ProductImage image = productImageRepository.findById(imageId).orElse(null);
+            if (image == null || image.getStatus() != ProductImageStatus.PENDING) { // deleted or handled meanwhile
+                imagesInProgress.remove(imageId);
+                continue;
+            }
+            images.add(image);
+        }
+
+        try {
+            // Decode and encode all images of the upload at once on the CPU pool, but store the results one by one
+            // in upload order, so the outcome does not depend on which image happens to finish first.
+            // The same photo uploaded for several colors is encoded only once.
+            Map<String, Future<Transcoded>> conversions = new HashMap<>();
+            List<Future<Transcoded>> results = new ArrayList<>(images.size());
+            for (ProductImage image : images) {
+                results.add(conversions.computeIfAbsent(image.getSourceHash(), sourceHash ->
+                        conversionPool.submit(() -> encodeTimer.recordCallable(() -> transcode(sourceHash)))));
+            }
+            for (int i = 0; i < images.size(); i++) {
+                finishImage(images.get(i), results.get(i));
+            }
+            // Cached product details still show the images as pending
+            if (!images.isEmpty()) eventPublisher.publishEvent(new ProductImagesConvertedEvent(productId));
+        } finally {
+            images.forEach(image -> imagesInProgress.remove(image.getId()));
+        }
+    }
+
+    private void finishImage(ProductImage image, Future<Transcoded> result) {
+        try {
+            complete(image.getId(), result.get());
+            log.debug("Converted image {}", image.getId());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return; // shutting down, the image stays pending until the next start
+        } catch (Exception e) {
+            log.error("Could not convert image {} to webp", image.getId(), e);
+            fail(image.getId());
+        }
+        releaseContent(image.getSourceHash());
+    }
+
+    private @NotNull Transcoded transcode(@NotNull String sourceHash) throws IOException {
+        BufferedImage image;
+        try (ImageInputStream source = imageStore.openImage(sourceHash)) {
+            image = WebpConverter.read(source, maxWidth);
+        }
+
+        StoredImage stored = store(image);
+        List<Rendition> renditions = new ArrayList<>();
+        for (Integer width : renditionWidths) {
+            if (width >= image.getWidth()) continue; // never upscale, the full size image serves these requests
+
+            BufferedImage scaled = WebpConverter.resizeToWidth(image, width);
+            StoredImage storedRendition = store(scaled);
+            renditions.add(new Rendition(scaled.getWidth(), scaled.getHeight(), storedRendition));
+        }
+
+        return new Transcoded(image.getWidth(), image.getHeight(), WebpConverter.placeholder(image), stored, renditions);
+    }
+
+    // Renditions are scaled from the image already in memory, decoding the source again per width would cost more
+    private @NotNull StoredImage store(@NotNull BufferedImage image) throws IOException {
+        return imageStore.save(out -> WebpConverter.encode(image, WebpConverter.DEFAULT_QUALITY, out));
+    }
+
+    private void complete(Long imageId, Transcoded result) {
+        transactionTemplate.executeWithoutResult(status -> productImageRepository.findById(imageId).ifPresent(image -> {
+            // The files were stored before this transaction, an image removed meanwhile may have released the same content
+            requireContent(result.stored.getHash());
+            result.renditions.forEach(rendition -> requireContent(rendition.stored.getHash()));
+
+            image.setContentHash(result.stored.getHash());
+            image.setContentLength(result.stored.getLength());
+            image.setWidth(result.width);
+            image.setHeight(result.height);
+            image.setPlaceholder(result.placeholder);
+            image.getRenditions().clear();
+            for (Rendition rendition : result.renditions) {
+                image.getRenditions().add(ProductImageRendition.builder()
+                        .image(image)
+                        .width(rendition.width)
+                        .height(rendition.height)
+                        .contentHash(rendition.stored.getHash())
+                        .contentLength(rendition.stored.getLength())
+                        .build());
+            }
+            image.setStatus(ProductImageStatus.READY);
+        }));
+    }
+
+    private void fail(Long imageId) {
+        transactionTemplate.executeWithoutResult(status -> productImageRepository.findById(imageId)
+                .ifPresent(image -> image.setStatus(ProductImageStatus.FAILED)));
+    }
+
+    private void requireContent(@NotNull String hash) {
+        productImageRepository.lockContentShared(hash);
+        if (!imageStore.exists(hash)) {
+            throw new IllegalStateException("Stored image " + hash + " was released before it could be referenced");
+        }
+    }
+
+    // An original is not needed anymore once converted, unless another pending image was uploaded with the same content.
+    // The check and the delete hold the content lock, so an upload or conversion that stored the same bytes but has not
+    // committed yet either is seen as reference or finds the file gone and stores it again
+    private void releaseContent(@NotNull String hash) {
+        transactionTemplate.executeWithoutResult(status -> {
+            productImageRepository.lockContent(hash);
+            if (productImageRepository.isContentReferenced(hash)) return;
+            try {
+                imageStore.delete(hash);
+            } catch (IOException e) {
+                log.warn("Could not delete stored image {}", hash, e);
+            }
+        });
+    }
+
+    private static @NotNull ThreadFactory threadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "image-transcoding-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Each thread keeps its own webp writer, released when the pool retires the thread after idling or on shutdown
+    private static class ConversionThread extends ForkJoinWorkerThread {
+
+        private ConversionThread(ForkJoinPool pool) {
+            super(pool);
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            try {
+                WebpConverter.disposeWriter();
+            } finally {
+                super.onTermination(exception);
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Transcoded {
+        private final int width;
+        private final int height;
+        private final String placeholder;
+        private final StoredImage stored;
+        private final List<Rendition> renditions;
+    }
+
+    @AllArgsConstructor
+    private static class Rendition {
+        private final int width;
+        private final int height;
+        private final StoredImage stored;
+    }
+}
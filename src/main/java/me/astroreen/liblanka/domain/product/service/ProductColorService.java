@@ -3,10 +3,12 @@ package me.astroreen.liblanka.domain.product.service;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import me.astroreen.liblanka.domain.product.entity.ProductColor;
+import me.astroreen.liblanka.domain.product.event.ProductChangedEvent;
 import me.astroreen.liblanka.domain.product.repository.ProductColorRepository;
 import me.astroreen.liblanka.domain.product.repository.ProductVariantRepository;
 
 import org.jetbrains.annotations.NotNull;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 
@@ -18,6 +20,7 @@ public class ProductColorService {
 
     private final ProductColorRepository productColorRepository;
     private final ProductVariantRepository productVariantRepository;
+    private final ApplicationEventPublisher eventPublisher;
 
     public @NotNull List<ProductColor> findAll() {
         return productColorRepository.findAll();
@@ -34,6 +37,7 @@ public class ProductColorService {
         
         // Update product variants that use the old color
         productVariantRepository.updateColorId(oldColorId, newColorId);
+        eventPublisher.publishEvent(ProductChangedEvent.allProducts());
     }
 
     @Transactional
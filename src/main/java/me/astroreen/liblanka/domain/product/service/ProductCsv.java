@@ -0,0 +1,82 @@
+package me.astroreen.liblanka.domain.product.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import lombok.experimental.UtilityClass;
+import me.astroreen.liblanka.domain.product.dto.ProductFileFormat;
+import me.astroreen.liblanka.domain.product.dto.ProductImportRow;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The {@link ProductFileFormat#CSV CSV} layout of {@link ProductImportRow}s, shared by import and export so that
+ * an exported file can be imported again.
+ */
+@UtilityClass
+class ProductCsv {
+
+    static final char LIST_SEPARATOR = ';';
+
+    static final CsvMapper MAPPER = CsvMapper.builder()
+            .enable(CsvParser.Feature.TRIM_SPACES, CsvParser.Feature.EMPTY_STRING_AS_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .addMixIn(ProductImportRow.class, ListColumns.class)
+            .build();
+
+    /** Takes the columns from the header row, so a file may list them in any order and leave out optional ones. */
+    static final CsvSchema READ_SCHEMA = CsvSchema.emptySchema().withHeader();
+
+    /** Writes a header row and the columns in the order of {@link ProductImportRow}. */
+    static final CsvSchema WRITE_SCHEMA = MAPPER.schemaFor(ProductImportRow.class).withHeader();
+
+    // The array separator of jackson-dataformat-csv can not be escaped, so lists are joined into one cell here
+    private abstract static class ListColumns {
+        @JsonSerialize(using = ListCellSerializer.class)
+        @JsonDeserialize(using = ListCellDeserializer.class)
+        private List<String> attributes;
+
+        @JsonSerialize(using = ListCellSerializer.class)
+        @JsonDeserialize(using = ListCellDeserializer.class)
+        private List<String> variants;
+    }
+
+    private static class ListCellSerializer extends StdSerializer<List<String>> {
+
+        private ListCellSerializer() {
+            super(List.class, false);
+        }
+
+        @Override
+        public void serialize(List<String> values, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeString(SeparatedValues.join(values, LIST_SEPARATOR));
+        }
+    }
+
+    private static class ListCellDeserializer extends StdDeserializer<List<String>> {
+
+        private ListCellDeserializer() {
+            super(List.class);
+        }
+
+        @Override
+        public List<String> deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            String cell = parser.getValueAsString();
+            try {
+                return SeparatedValues.split(cell, LIST_SEPARATOR);
+            } catch (IllegalArgumentException e) {
+                throw context.weirdStringException(cell, List.class, e.getMessage());
+            }
+        }
+    }
+}
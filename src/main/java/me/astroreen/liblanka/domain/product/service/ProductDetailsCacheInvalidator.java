@@ -0,0 +1,41 @@
+package me.astroreen.liblanka.domain.product.service;
+
+import lombok.RequiredArgsConstructor;
+import me.astroreen.liblanka.domain.product.config.ProductCacheConfiguration;
+import me.astroreen.liblanka.domain.product.event.ProductChangedEvent;
+import me.astroreen.liblanka.domain.product.event.ProductImagesConvertedEvent;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Drops cached product details once a change to the product has been committed, so the next request reads
+ * the new state. A request that read the product while it was being changed can still put the old state back,
+ * the expiry of the cache bounds how long it is served.
+ */
+@Component
+@RequiredArgsConstructor
+public class ProductDetailsCacheInvalidator {
+
+    private final CacheManager cacheManager;
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(@NotNull ProductChangedEvent event) {
+        Cache cache = cacheManager.getCache(ProductCacheConfiguration.PRODUCT_DETAILS);
+        if (cache == null) return;
+
+        if (event.getProductId() == null) {
+            cache.clear();
+        } else {
+            cache.evict(event.getProductId());
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductImagesConverted(@NotNull ProductImagesConvertedEvent event) {
+        Cache cache = cacheManager.getCache(ProductCacheConfiguration.PRODUCT_DETAILS);
+        if (cache != null) cache.evict(event.getProductId());
+    }
+}
@@ -0,0 +1,119 @@
+package me.astroreen.liblanka.domain.product.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import me.astroreen.liblanka.domain.product.dto.ProductFileFormat;
+import me.astroreen.liblanka.domain.product.dto.ProductImportRow;
+import me.astroreen.liblanka.domain.product.repository.ProductRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductVariantRepository;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Writes the whole catalog as {@link ProductImportRow}s, in the format the import reads.
+ * <p>
+ * Products and their variants are read through two database cursors, both in product id order, and merged while
+ * they are written, so memory use does not grow with the catalog. Only plain values are selected, no entities
+ * end up in the persistence context, so there is nothing to clear while streaming.
+ * </p>
+ */
+@Service
+public class ProductExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductExportService.class);
+
+    private final ProductRepository productRepository;
+    private final ProductVariantRepository productVariantRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    public ProductExportService(ProductRepository productRepository,
+                                ProductVariantRepository productVariantRepository,
+                                ObjectMapper objectMapper,
+                                PlatformTransactionManager transactionManager) {
+        this.productRepository = productRepository;
+        this.productVariantRepository = productVariantRepository;
+        this.objectMapper = objectMapper;
+        // Postgres only uses a cursor with a fetch size inside a transaction, a read only one also sees a consistent snapshot
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Writes every product to the stream, which is flushed but not closed.
+     *
+     * @throws IOException if the stream can not be written
+     */
+    public void export(@NotNull OutputStream out, @NotNull ProductFileFormat format) throws IOException {
+        long exported;
+        try (SequenceWriter writer = writer(format).writeValues(out)) {
+            exported = transactionTemplate.execute(status -> {
+                try (Stream<Object[]> products = productRepository.streamExportRows();
+                     Stream<Object[]> variants = productVariantRepository.streamExportRows()) {
+                    return write(products.iterator(), variants.iterator(), writer);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        log.info("Exported {} products as {}", exported, format);
+    }
+
+    private @NotNull ObjectWriter writer(@NotNull ProductFileFormat format) {
+        ObjectWriter writer = switch (format) {
+            case CSV -> ProductCsv.MAPPER.writerFor(ProductImportRow.class).with(ProductCsv.WRITE_SCHEMA);
+            case NDJSON -> objectMapper.writerFor(ProductImportRow.class).withRootValueSeparator("\n");
+        };
+        return writer.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long write(@NotNull Iterator<Object[]> products, @NotNull Iterator<Object[]> variants,
+                              @NotNull SequenceWriter writer) throws IOException {
+        long exported = 0;
+        Object[] variant = variants.hasNext() ? variants.next() : null;
+        while (products.hasNext()) {
+            Object[] product = products.next();
+            Long productId = (Long) product[0];
+
+            // Every variant belongs to a product, so the ones of this product come next
+            List<String> productVariants = new ArrayList<>();
+            while (variant != null && productId.equals(variant[0])) {
+                productVariants.add(SeparatedValues.join(
+                        List.of((String) variant[1], (String) variant[2], String.valueOf(variant[3])),
+                        ProductImportRow.VARIANT_SEPARATOR));
+                variant = variants.hasNext() ? variants.next() : null;
+            }
+
+            writer.write(ProductImportRow.builder()
+                    .name((String) product[1])
+                    .type((String) product[2])
+                    .description((String) product[3])
+                    .price((BigDecimal) product[4])
+                    .attributes((List<String>) product[5])
+                    .variants(productVariants)
+                    .build());
+            exported++;
+        }
+        writer.flush();
+        return exported;
+    }
+}
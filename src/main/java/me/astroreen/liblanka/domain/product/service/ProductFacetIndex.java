@@ -0,0 +1,287 @@
+package me.astroreen.liblanka.domain.product.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import me.astroreen.liblanka.domain.product.dto.PriceBucketDto;
+import me.astroreen.liblanka.domain.product.dto.ProductFacetsDto;
+import me.astroreen.liblanka.domain.product.entity.specifications.ProductSpecifications;
+import me.astroreen.liblanka.domain.product.event.ProductChangedEvent;
+import me.astroreen.liblanka.domain.product.repository.ProductRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductVariantRepository;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of the type, colors and sizes of every product, which answers the facet part of product filters
+ * without querying product variants.
+ * <p>
+ * Every type, color and size id maps to a compressed bitmap of the ids of the products that have it, so finding the
+ * products that have all of the requested colors and all of the requested sizes is an intersection of bitmaps.
+ * The index is built at startup and updated product by product from {@link ProductChangedEvent}s once the change
+ * has been committed. It also keeps the type, colors, sizes and price of every product, so that the number of
+ * results each filter option would leave can be counted without asking the database.
+ * </p>
+ */
+@Service
+public class ProductFacetIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductFacetIndex.class);
+
+    private final ProductRepository productRepository;
+    private final ProductVariantRepository productVariantRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final List<BigDecimal> priceBucketBounds;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Roaring64NavigableMap> productsByType = new HashMap<>();
+    private final Map<Long, Roaring64NavigableMap> productsByColor = new HashMap<>();
+    private final Map<Long, Roaring64NavigableMap> productsBySize = new HashMap<>();
+    private final Map<Long, Facets> facetsByProduct = new HashMap<>(); // to take a product out of the bitmaps again
+
+    public ProductFacetIndex(ProductRepository productRepository,
+                             ProductVariantRepository productVariantRepository,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${liblanka.catalog.price-buckets}") List<BigDecimal> priceBucketBounds) {
+        this.productRepository = productRepository;
+        this.productVariantRepository = productVariantRepository;
+        this.priceBucketBounds = priceBucketBounds.stream().sorted().toList();
+        // Events are handled after the publishing transaction committed, reads need a transaction of their own
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    // Updates read the database and apply what they read one at a time, otherwise an update that read older data
+    // could overwrite a newer one. Filters only take the read lock and are not held up by the reads.
+    @PostConstruct
+    public synchronized void rebuild() {
+        Map<Long, Facets> facets = transactionTemplate.execute(status -> {
+            Map<Long, Facets> loaded = new HashMap<>();
+            for (Object[] row : productRepository.findAllFacetValues()) {
+                loaded.put((Long) row[0], new Facets((Long) row[1], (BigDecimal) row[2], new HashSet<>(), new HashSet<>()));
+            }
+            for (Object[] row : productVariantRepository.findAllFacetIds()) {
+                Facets product = loaded.get((Long) row[0]);
+                if (product == null) continue;
+                product.colorIds.add((Long) row[1]);
+                product.sizeIds.add((Long) row[2]);
+            }
+            return loaded;
+        });
+
+        lock.writeLock().lock();
+        try {
+            productsByType.clear();
+            productsByColor.clear();
+            productsBySize.clear();
+            facetsByProduct.clear();
+            facets.forEach(this::add);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Indexed facets of {} products", facets.size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(@NotNull ProductChangedEvent event) {
+        if (event.getProductId() == null) {
+            rebuild();
+        } else {
+            reindex(event.getProductId());
+        }
+    }
+
+    /**
+     * Finds the products that have the given type, every one of the given colors and every one of the given sizes.
+     * Criteria that are null or empty are ignored.
+     *
+     * @return a new bitmap of the matching product ids, or null if no facet was requested at all
+     */
+    public @Nullable Roaring64NavigableMap match(@Nullable Long typeId, @Nullable Collection<Long> colorIds,
+                                                 @Nullable Collection<Long> sizeIds) {
+        List<Roaring64NavigableMap> required = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (typeId != null) required.add(productsByType.get(typeId));
+            if (colorIds != null) colorIds.forEach(colorId -> required.add(productsByColor.get(colorId)));
+            if (sizeIds != null) sizeIds.forEach(sizeId -> required.add(productsBySize.get(sizeId)));
+            if (required.isEmpty()) return null;
+
+            Roaring64NavigableMap matches = new Roaring64NavigableMap();
+            if (required.contains(null)) return matches; // a facet value no product has
+
+            matches.or(required.getFirst());
+            for (int i = 1; i < required.size() && !matches.isEmpty(); i++) {
+                matches.and(required.get(i));
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts how many products each type, color, size and price bucket would leave if it was picked next,
+     * in a single pass over the candidates.
+     * <p>
+     * Picking a color or size narrows the current result down, so those are counted within the products matching the
+     * whole filter. Picking a type or price range replaces the current one, so types are counted as if no type was
+     * filtered and price buckets as if no price range was.
+     * </p>
+     *
+     * @param candidates ids of the products matching the criteria this index knows nothing about, null for all products
+     * @param filter     the type, colors, sizes and price range currently filtered
+     */
+    public @NotNull ProductFacetsDto countFacets(@Nullable Collection<Long> candidates,
+                                                 @NotNull ProductSpecifications.Filter filter) {
+        Map<Long, Long> types = new HashMap<>();
+        Map<Long, Long> colors = new HashMap<>();
+        Map<Long, Long> sizes = new HashMap<>();
+        long[] bucketCounts = new long[priceBucketBounds.size() + 1];
+
+        lock.readLock().lock();
+        try {
+            for (Long productId : candidates != null ? candidates : facetsByProduct.keySet()) {
+                Facets facets = facetsByProduct.get(productId);
+                if (facets == null) continue; // created after the candidates were read
+                if (!containsAll(facets.colorIds, filter.getColorIds()) || !containsAll(facets.sizeIds, filter.getSizeIds())) {
+                    continue;
+                }
+
+                boolean typeMatches = filter.getTypeId() == null || filter.getTypeId().equals(facets.typeId);
+                boolean priceMatches = isInRange(facets.price, filter.getMinPrice(), filter.getMaxPrice());
+                if (priceMatches) types.merge(facets.typeId, 1L, Long::sum);
+                if (typeMatches) bucketCounts[bucketOf(facets.price)]++;
+                if (typeMatches && priceMatches) {
+                    facets.colorIds.forEach(colorId -> colors.merge(colorId, 1L, Long::sum));
+                    facets.sizeIds.forEach(sizeId -> sizes.merge(sizeId, 1L, Long::sum));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<PriceBucketDto> prices = new ArrayList<>(bucketCounts.length);
+        for (int i = 0; i < bucketCounts.length; i++) {
+            prices.add(PriceBucketDto.builder()
+                    .minPrice(i == 0 ? BigDecimal.ZERO : priceBucketBounds.get(i - 1))
+                    .maxPrice(i < priceBucketBounds.size() ? priceBucketBounds.get(i) : null)
+                    .count(bucketCounts[i])
+                    .build());
+        }
+        return ProductFacetsDto.builder().types(types).colors(colors).sizes(sizes).prices(prices).build();
+    }
+
+    /**
+     * Returns up to {@code limit} ids of the bitmap in ascending order, skipping the first {@code offset} ones.
+     */
+    public static @NotNull List<Long> slice(@NotNull Roaring64NavigableMap ids, long offset, int limit) {
+        long end = Math.min(ids.getLongCardinality(), offset + limit);
+        List<Long> slice = new ArrayList<>((int) Math.max(0, end - offset));
+        for (long i = offset; i < end; i++) {
+            slice.add(ids.select(i));
+        }
+        return slice;
+    }
+
+    public static @NotNull List<Long> toList(@NotNull Roaring64NavigableMap ids) {
+        List<Long> list = new ArrayList<>((int) ids.getLongCardinality());
+        LongIterator iterator = ids.getLongIterator();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+
+    private synchronized void reindex(@NotNull Long productId) {
+        Facets facets = transactionTemplate.execute(status -> {
+            List<Object[]> values = productRepository.findFacetValuesById(productId);
+            if (values.isEmpty()) return null;
+
+            Facets loaded = new Facets((Long) values.getFirst()[0], (BigDecimal) values.getFirst()[1],
+                    new HashSet<>(), new HashSet<>());
+            for (Object[] row : productVariantRepository.findFacetIdsByProductId(productId)) {
+                loaded.colorIds.add((Long) row[0]);
+                loaded.sizeIds.add((Long) row[1]);
+            }
+            return loaded;
+        });
+
+        lock.writeLock().lock();
+        try {
+            remove(productId);
+            if (facets != null) add(productId, facets); // null if the product was deleted
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int bucketOf(@NotNull BigDecimal price) {
+        int bucket = 0;
+        while (bucket < priceBucketBounds.size() && price.compareTo(priceBucketBounds.get(bucket)) >= 0) bucket++;
+        return bucket;
+    }
+
+    private static boolean containsAll(@NotNull Set<Long> values, @Nullable Collection<Long> required) {
+        return required == null || values.containsAll(required);
+    }
+
+    // Same bounds as the price range of the product filter, both inclusive
+    private static boolean isInRange(@NotNull BigDecimal price, @Nullable BigDecimal min, @Nullable BigDecimal max) {
+        return (min == null || price.compareTo(min) >= 0) && (max == null || price.compareTo(max) <= 0);
+    }
+
+    // Callers hold the write lock
+    private void add(@NotNull Long productId, @NotNull Facets facets) {
+        facetsByProduct.put(productId, facets);
+        productsByType.computeIfAbsent(facets.typeId, id -> new Roaring64NavigableMap()).addLong(productId);
+        facets.colorIds.forEach(colorId -> productsByColor.computeIfAbsent(colorId, id -> new Roaring64NavigableMap()).addLong(productId));
+        facets.sizeIds.forEach(sizeId -> productsBySize.computeIfAbsent(sizeId, id -> new Roaring64NavigableMap()).addLong(productId));
+    }
+
+    // Callers hold the write lock
+    private void remove(@NotNull Long productId) {
+        Facets facets = facetsByProduct.remove(productId);
+        if (facets == null) return;
+
+        removeFrom(productsByType, facets.typeId, productId);
+        facets.colorIds.forEach(colorId -> removeFrom(productsByColor, colorId, productId));
+        facets.sizeIds.forEach(sizeId -> removeFrom(productsBySize, sizeId, productId));
+    }
+
+    private static void removeFrom(Map<Long, Roaring64NavigableMap> index, Long facetId, Long productId) {
+        Roaring64NavigableMap products = index.get(facetId);
+        if (products == null) return;
+        products.removeLong(productId);
+        if (products.isEmpty()) index.remove(facetId);
+    }
+
+    @AllArgsConstructor
+    private static class Facets {
+        private final Long typeId;
+        private final BigDecimal price;
+        private final Set<Long> colorIds;
+        private final Set<Long> sizeIds;
+    }
+}
@@ -2,31 +2,29 @@ package me.astroreen.liblanka.domain.product.service;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.luciad.imageio.webp.WebPWriteParam;
-
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import me.astroreen.liblanka.domain.product.entity.Product;
 import me.astroreen.liblanka.domain.product.entity.ProductColor;
 import me.astroreen.liblanka.domain.product.entity.ProductImage;
+import me.astroreen.liblanka.domain.product.entity.ProductImageRendition;
+import me.astroreen.liblanka.domain.product.entity.ProductImageStatus;
 import me.astroreen.liblanka.domain.product.repository.ProductImageRepository;
+import me.astroreen.liblanka.domain.product.storage.ImageStore;
+import me.astroreen.liblanka.domain.product.storage.StoredImage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
-import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 
 @Service
 @RequiredArgsConstructor
@@ -34,6 +32,8 @@ public class ProductImageService {
 
     private final ProductColorService productColorService;
     private final ProductImageRepository productImageRepository;
+    private final ImageStore imageStore;
+    private final ImageTranscodingService imageTranscodingService;
     private static final Logger log = LoggerFactory.getLogger(ProductImageService.class);
 
     @Transactional
@@ -48,22 +48,7 @@ public class ProductImageService {
                 continue;
             }
 
-            byte[] imageData = image.getBytes();
-            if (imageData.length == 0) {
-                log.warn("Image file {} has no data", image.getOriginalFilename());
-                continue;
-            }
-
-            // Convert to webp
-            byte[] webpData = convertToWebp(imageData);
-
-            ProductImage productImage = ProductImage.builder()
-                    .product(originalProduct)
-                    .imageData(webpData)
-                    .color(null)
-                    .build();
-
-            productImages.add(productImage);
+            productImages.add(stageImage(originalProduct, image, null));
         }
 
         if (productImages.isEmpty()) {
@@ -72,6 +57,7 @@ public class ProductImageService {
         }
 
         productImageRepository.saveAll(productImages);
+        imageTranscodingService.transcodeAfterCommit(originalProduct);
         originalProduct.setImages(productImages);
         log.debug("Saved {} images for product ID {}", productImages.size(), originalProduct.getId());
         return originalProduct;
@@ -88,10 +74,10 @@ public class ProductImageService {
             throw new IllegalArgumentException("The number of images must match the number of color IDs");
         }
 
+        // Colors are resolved by index, so the n-th image always gets the n-th color
         List<ProductColor> allColors = productColorService.findAll();
-        Map<MultipartFile, ProductColor> data = new HashMap<>();
-        for (int i = 0; i < images.size(); i++) {
-            Long colorId = colorIds.get(i);
+        List<ProductColor> imageColors = new ArrayList<>(images.size());
+        for (Long colorId : colorIds) {
             ProductColor imageColor = null;
             if (colorId != null) {
                 imageColor = allColors.stream()
@@ -99,23 +85,16 @@ public class ProductImageService {
                         .findFirst()
                         .orElseThrow(() -> new NoSuchElementException("Color ID " + colorId + " could not be found in the database"));
             }
-            data.put(images.get(i), imageColor);
+            imageColors.add(imageColor);
         }
 
-        List<ProductImage> productImages = new ArrayList<>();
-        for (Map.Entry<MultipartFile, ProductColor> entry : data.entrySet()) {
-            byte[] imageData = entry.getKey().getBytes();
-            // Convert to webp
-            byte[] webpData = convertToWebp(imageData);
-            ProductImage productImage = ProductImage.builder()
-                    .product(originalProduct)
-                    .imageData(webpData)
-                    .color(entry.getValue())
-                    .build();
-            productImages.add(productImage);
+        List<ProductImage> productImages = new ArrayList<>(images.size());
+        for (int i = 0; i < images.size(); i++) {
+            productImages.add(stageImage(originalProduct, images.get(i), imageColors.get(i)));
         }
 
         productImageRepository.saveAll(productImages);
+        imageTranscodingService.transcodeAfterCommit(originalProduct);
         originalProduct.setImages(productImages);
         return originalProduct;
     }
@@ -128,54 +107,170 @@ public class ProductImageService {
         .findFirst()
         .orElseThrow(() -> new NoSuchElementException("Color ID " + colorId + " could not be found in the database"));
         
-        byte[] webpData = convertToWebp(image.getBytes());
-
-        ProductImage coloredImage = ProductImage.builder()
-            .product(originalProduct)
-            .imageData(webpData)
-            .color(color)
-            .build();
-        
+        ProductImage coloredImage = stageImage(originalProduct, image, color);
         productImageRepository.save(coloredImage);
+        imageTranscodingService.transcodeAfterCommit(originalProduct);
         List<ProductImage> images = originalProduct.getImages();
         images.add(coloredImage);
         originalProduct.setImages(images);
         return originalProduct;
     }
 
-    @Transactional
-    public byte[] getImageData(Long imageId) throws IllegalArgumentException {
-        ProductImage productImage = productImageRepository.findById(imageId)
+    /**
+     * Stores the uploaded files as {@link ProductImageStatus#PENDING} images of the product and queues them for
+     * conversion to webp once the current transaction commits. The returned images are not persisted, it is up to
+     * the caller to save them together with the product.
+     *
+     * @param product the product the images belong to
+     * @param files   the uploaded images in any format supported by {@link ImageIO}
+     * @param colors  the color variant each image shows, by index of {@code files}, entries may be null
+     * @return new, unsaved {@link ProductImage}s in the order of {@code files}
+     * @throws IOException if a file can not be read or stored
+     */
+    public @NotNull List<ProductImage> createImages(@NotNull Product product, @NotNull List<MultipartFile> files,
+                                                    @NotNull List<ProductColor> colors) throws IOException {
+        List<ProductImage> productImages = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            productImages.add(stageImage(product, files.get(i), colors.get(i)));
+        }
+        if (!productImages.isEmpty()) {
+            imageTranscodingService.transcodeAfterCommit(product);
+        }
+        return productImages;
+    }
+
+    public @NotNull ProductImage findById(Long imageId) throws IllegalArgumentException {
+        return productImageRepository.findById(imageId)
                 .orElseThrow(() -> new IllegalArgumentException("Image with id " + imageId + " was not found"));
-        return productImage.getImageData();
     }
 
-    // Helper to convert image bytes to webp (80% quality)
-    private byte[] convertToWebp(byte[] imageBytes) throws IOException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(imageBytes);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageOutputStream ios = ImageIO.createImageOutputStream(baos);
-        BufferedImage inputImage = ImageIO.read(bais);
-        if (inputImage == null) {
-            throw new IOException("Unsupported image format for conversion to webp");
+    /**
+     * @return the images of the product in upload order, with their colors loaded
+     */
+    public @NotNull List<ProductImage> findAllByProductId(@NotNull Long productId) {
+        return productImageRepository.findAllWithColorByProductId(productId);
+    }
+
+    /**
+     * Picks the stored content that best fits the requested width: the narrowest rendition that is at least
+     * as wide as requested, or the full size image if there is none or no width was requested.
+     *
+     * @param productImage the image to serve
+     * @param width        the width in pixels the client is going to display, may be null
+     * @return the content hash of the chosen rendition or of the full size image
+     * @throws IllegalArgumentException if the image is not {@link ProductImageStatus#READY}
+     */
+    public @NotNull String selectContentHash(@NotNull ProductImage productImage, @Nullable Integer width)
+            throws IllegalArgumentException {
+        if (productImage.getStatus() != ProductImageStatus.READY) {
+            throw new IllegalArgumentException("Image with id " + productImage.getId() + " is not converted yet");
+        }
+        if (width == null) return productImage.getContentHash();
+
+        return productImage.getRenditions().stream()
+                .filter(rendition -> rendition.getWidth() >= width)
+                .min(Comparator.comparingInt(ProductImageRendition::getWidth))
+                .map(ProductImageRendition::getContentHash)
+                .orElse(productImage.getContentHash());
+    }
+
+    /**
+     * Returns the stored webp bytes as a {@link Resource}, so they can be streamed to the client.
+     *
+     * @param productImage the image the content belongs to
+     * @param contentHash  the hash of the image itself or of one of its renditions
+     * @throws IllegalArgumentException if the content is missing from the {@link ImageStore}
+     */
+    public @NotNull Resource getImageResource(@NotNull ProductImage productImage, @NotNull String contentHash)
+            throws IllegalArgumentException {
+        Resource resource = imageStore.getResource(contentHash);
+        if (!resource.exists()) {
+            log.error("Image {} references missing content {}", productImage.getId(), contentHash);
+            throw new IllegalArgumentException("Image with id " + productImage.getId() + " has no stored content");
         }
-        ImageWriter writer = ImageIO.getImageWritersByMIMEType("image/webp").next();
-        writer.setOutput(ios);
-
-        WebPWriteParam param = new WebPWriteParam(writer.getLocale());
-        if (param.canWriteCompressed()) {
-            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            param.setCompressionType(param.getCompressionTypes()[WebPWriteParam.LOSSY_COMPRESSION]);
-            param.setCompressionQuality(0.8f); // 80% quality
+        return resource;
+    }
+
+    /**
+     * Deletes the stored content of images removed from their product once the current transaction commits.
+     * Content that is shared with other images, because the same photo was uploaded more than once, is kept
+     * until the last of them is gone.
+     *
+     * @param removedImages images that are deleted in the current transaction
+     * @throws IllegalStateException if there is no active transaction
+     */
+    public void releaseContentAfterCommit(@NotNull Collection<ProductImage> removedImages) throws IllegalStateException {
+        List<String> hashes = new ArrayList<>();
+        for (ProductImage image : removedImages) {
+            if (image.getContentHash() != null) hashes.add(image.getContentHash());
+            if (image.getSourceHash() != null) hashes.add(image.getSourceHash());
+            image.getRenditions().forEach(rendition -> hashes.add(rendition.getContentHash()));
         }
-        
-        IIOImage iioImage = new IIOImage(inputImage, null, null);
-        writer.write(null, iioImage, param);
-        
-        writer.dispose();
-        ios.close();
-        baos.close();
+        if (!hashes.isEmpty()) imageTranscodingService.releaseContentAfterCommit(hashes);
+    }
+
+    // Stores the upload as is, conversion to webp happens in the background. The part is copied from the
+    // container's temporary file, so large uploads never end up on the heap as a whole.
+    // An upload with the same bytes as an already converted image shares its webp files instead of being encoded again.
+    // The new image only references stored content while holding its lock until commit, content that was released
+    // before the lock was granted is stored again or not shared.
+    private @NotNull ProductImage stageImage(@NotNull Product product, @NotNull MultipartFile file, @Nullable ProductColor color)
+            throws IOException {
+        StoredImage source = store(file);
+        productImageRepository.lockContentShared(source.getHash());
+        if (!imageStore.exists(source.getHash())) {
+            source = store(file);
+        }
+        ProductImage image = ProductImage.builder()
+                .product(product)
+                .status(ProductImageStatus.PENDING)
+                .sourceHash(source.getHash())
+                .color(color)
+                .build();
 
-        return baos.toByteArray();
+        Optional<ProductImage> converted = productImageRepository
+                .findFirstBySourceHashAndStatusOrderByIdAsc(source.getHash(), ProductImageStatus.READY);
+        if (converted.isPresent() && lockContent(converted.get())) {
+            shareConversion(converted.get(), image);
+            // The original was only stored again to hash it
+            imageTranscodingService.releaseContentAfterCommit(List.of(source.getHash()));
+            log.debug("Upload {} reuses the conversion of image {}", file.getOriginalFilename(), converted.get().getId());
+        }
+        return image;
+    }
+
+    private @NotNull StoredImage store(@NotNull MultipartFile file) throws IOException {
+        try (InputStream content = file.getInputStream()) {
+            return imageStore.save(content);
+        }
+    }
+
+    private boolean lockContent(@NotNull ProductImage converted) {
+        List<String> hashes = new ArrayList<>();
+        hashes.add(converted.getContentHash());
+        converted.getRenditions().forEach(rendition -> hashes.add(rendition.getContentHash()));
+        for (String hash : hashes) {
+            productImageRepository.lockContentShared(hash);
+            if (!imageStore.exists(hash)) return false; // the converted image was removed meanwhile
+        }
+        return true;
+    }
+
+    private static void shareConversion(@NotNull ProductImage converted, @NotNull ProductImage image) {
+        image.setContentHash(converted.getContentHash());
+        image.setContentLength(converted.getContentLength());
+        image.setWidth(converted.getWidth());
+        image.setHeight(converted.getHeight());
+        image.setPlaceholder(converted.getPlaceholder());
+        for (ProductImageRendition rendition : converted.getRenditions()) {
+            image.getRenditions().add(ProductImageRendition.builder()
+                    .image(image)
+                    .width(rendition.getWidth())
+                    .height(rendition.getHeight())
+                    .contentHash(rendition.getContentHash())
+                    .contentLength(rendition.getContentLength())
+                    .build());
+        }
+        image.setStatus(ProductImageStatus.READY);
     }
 }
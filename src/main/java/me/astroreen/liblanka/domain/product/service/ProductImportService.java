@@ -0,0 +1,283 @@
+package me.astroreen.liblanka.domain.product.service;
+
+import com.fasterxml.jackson.core.exc.StreamReadException;
+import com.fasterxml.jackson.databind.DatabindException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.PersistenceException;
+import me.astroreen.liblanka.domain.product.dto.ProductFileFormat;
+import me.astroreen.liblanka.domain.product.dto.ProductImportErrorDto;
+import me.astroreen.liblanka.domain.product.dto.ProductImportResultDto;
+import me.astroreen.liblanka.domain.product.dto.ProductImportRow;
+import me.astroreen.liblanka.domain.product.entity.Product;
+import me.astroreen.liblanka.domain.product.entity.ProductColor;
+import me.astroreen.liblanka.domain.product.entity.ProductSize;
+import me.astroreen.liblanka.domain.product.entity.ProductType;
+import me.astroreen.liblanka.domain.product.entity.ProductVariant;
+import me.astroreen.liblanka.domain.product.event.ProductChangedEvent;
+import me.astroreen.liblanka.domain.product.repository.ProductColorRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductSizeRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductTypeRepository;
+import org.hibernate.Session;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Creates products from CSV or NDJSON files of any size.
+ * <p>
+ * The file is parsed row by row while it is read, and the products are saved in batches of
+ * {@code liblanka.catalog.import.batch-size}, each in its own transaction and sent as one JDBC batch. Only the current
+ * batch and the error report are held in memory. Types, colors and sizes are looked up by name in a copy loaded once
+ * per import. A row that can not be imported is skipped and reported with its line, the other rows are imported
+ * anyway. If the database rejects a batch, all of its rows are reported as failed.
+ * </p>
+ */
+@Service
+public class ProductImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductImportService.class);
+    private static final int MAX_REPORTED_ERRORS = 1000; // keeps the report small for a file that is wrong throughout
+
+    private final ProductRepository productRepository;
+    private final ProductTypeRepository productTypeRepository;
+    private final ProductColorRepository productColorRepository;
+    private final ProductSizeRepository productSizeRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int batchSize;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public ProductImportService(ProductRepository productRepository,
+                                ProductTypeRepository productTypeRepository,
+                                ProductColorRepository productColorRepository,
+                                ProductSizeRepository productSizeRepository,
+                                ObjectMapper objectMapper,
+                                PlatformTransactionManager transactionManager,
+                                ApplicationEventPublisher eventPublisher,
+                                @Value("${liblanka.catalog.import.batch-size}") int batchSize) {
+        this.productRepository = productRepository;
+        this.productTypeRepository = productTypeRepository;
+        this.productColorRepository = productColorRepository;
+        this.productSizeRepository = productSizeRepository;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.eventPublisher = eventPublisher;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Imports every row of the file as a new product.
+     *
+     * @param content the file, read up to its end
+     * @param format  the format of the file
+     * @return how many products were imported and which rows failed
+     * @throws IOException if the file can not be read
+     */
+    public @NotNull ProductImportResultDto importProducts(@NotNull InputStream content, @NotNull ProductFileFormat format)
+            throws IOException {
+        References references = loadReferences();
+        Report report = new Report();
+        List<Row> batch = new ArrayList<>(batchSize);
+
+        try (MappingIterator<ProductImportRow> rows = reader(format).readValues(content)) {
+            while (true) {
+                long line = -1;
+                ProductImportRow row;
+                try {
+                    if (!rows.hasNextValue()) break;
+                    line = rows.getParser().currentTokenLocation().getLineNr();
+                    row = rows.nextValue();
+                } catch (DatabindException e) {
+                    // A value of the wrong type, the iterator skips to the next row
+                    report.fail(line, e.getOriginalMessage());
+                    continue;
+                } catch (StreamReadException e) {
+                    // Broken syntax, there is no telling where the next row starts
+                    report.fail(e.getLocation() == null ? line : e.getLocation().getLineNr(),
+                            e.getOriginalMessage() + ", the rest of the file was not imported");
+                    break;
+                }
+
+                try {
+                    batch.add(new Row(line, toProduct(row, references)));
+                } catch (IllegalArgumentException e) {
+                    report.fail(line, e.getMessage());
+                }
+                if (batch.size() >= batchSize) {
+                    save(batch, report);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) save(batch, report);
+
+        log.info("Imported {} products, {} rows failed", report.imported, report.failed);
+        if (report.imported > 0) eventPublisher.publishEvent(ProductChangedEvent.allProducts());
+        return report.toDto();
+    }
+
+    private @NotNull ObjectReader reader(@NotNull ProductFileFormat format) {
+        return switch (format) {
+            case CSV -> ProductCsv.MAPPER.readerFor(ProductImportRow.class).with(ProductCsv.READ_SCHEMA);
+            case NDJSON -> objectMapper.readerFor(ProductImportRow.class);
+        };
+    }
+
+    private void save(@NotNull List<Row> batch, @NotNull Report report) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+                productRepository.saveAll(batch.stream().map(Row::product).toList());
+                entityManager.flush();
+                // The persistence context may span the whole request, it must not grow with the file
+                entityManager.clear();
+            });
+            report.imported += batch.size();
+        } catch (DataAccessException | PersistenceException | TransactionException e) {
+            log.warn("Could not save imported products of lines {} to {}", batch.getFirst().line(), batch.getLast().line(), e);
+            batch.forEach(row -> report.fail(row.line(), "Could not be saved together with its batch: " + e.getMessage()));
+        }
+    }
+
+    private @NotNull Product toProduct(@NotNull ProductImportRow row, @NotNull References references)
+            throws IllegalArgumentException {
+        if (row.getName() == null || row.getName().isBlank()) throw new IllegalArgumentException("Missing name");
+        if (row.getPrice() == null || row.getPrice().signum() < 0) {
+            throw new IllegalArgumentException("Missing or negative price");
+        }
+
+        Product product = Product.builder()
+                .name(row.getName().trim())
+                .type(references.type(row.getType()))
+                .description(row.getDescription())
+                .price(row.getPrice())
+                .attributes(nonBlank(row.getAttributes()))
+                .variants(new ArrayList<>())
+                .build();
+
+        Set<String> combinations = new HashSet<>();
+        for (String variant : nonBlank(row.getVariants())) {
+            List<String> parts = SeparatedValues.split(variant, ProductImportRow.VARIANT_SEPARATOR);
+            if (parts.size() != 3) {
+                throw new IllegalArgumentException("Malformed variant '" + variant + "', expected color:size:quantity");
+            }
+            ProductColor color = references.color(parts.get(0));
+            ProductSize size = references.size(parts.get(1));
+            int quantity;
+            try {
+                quantity = Integer.parseInt(parts.get(2).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid quantity in variant '" + variant + "'");
+            }
+            if (quantity < 0) throw new IllegalArgumentException("Negative quantity in variant '" + variant + "'");
+            if (!combinations.add(color.getId() + ":" + size.getId())) {
+                throw new IllegalArgumentException("Duplicate variant '" + variant + "'");
+            }
+
+            product.getVariants().add(ProductVariant.builder()
+                    .product(product)
+                    .color(color)
+                    .size(size)
+                    .quantity(quantity)
+                    .build());
+        }
+        return product;
+    }
+
+    private static @NotNull List<String> nonBlank(@Nullable List<String> values) {
+        if (values == null) return List.of();
+        return values.stream().filter(value -> value != null && !value.isBlank()).map(String::trim).toList();
+    }
+
+    // Reference data is small and rarely changes, one copy per import saves a lookup per row
+    private @NotNull References loadReferences() {
+        References references = transactionTemplate.execute(status -> new References(
+                byName(productTypeRepository.findAll(), ProductType::getName),
+                byName(productColorRepository.findAll(), ProductColor::getName),
+                byName(productSizeRepository.findAll(), ProductSize::getName)));
+        if (references == null) throw new IllegalStateException("Product reference data could not be loaded");
+        return references;
+    }
+
+    private static <T> @NotNull Map<String, T> byName(@NotNull List<T> entities, @NotNull Function<T, String> nameOf) {
+        Map<String, T> byName = new HashMap<>();
+        entities.forEach(entity -> byName.put(normalize(nameOf.apply(entity)), entity));
+        return byName;
+    }
+
+    private static @NotNull String normalize(@NotNull String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private record References(Map<String, ProductType> types, Map<String, ProductColor> colors,
+                              Map<String, ProductSize> sizes) {
+
+        ProductType type(@Nullable String name) throws IllegalArgumentException {
+            return find(types, name, "type");
+        }
+
+        ProductColor color(@Nullable String name) throws IllegalArgumentException {
+            return find(colors, name, "color");
+        }
+
+        ProductSize size(@Nullable String name) throws IllegalArgumentException {
+            return find(sizes, name, "size");
+        }
+
+        private static <T> T find(Map<String, T> byName, @Nullable String name, String kind) {
+            if (name == null || name.isBlank()) throw new IllegalArgumentException("Missing " + kind);
+            T entity = byName.get(normalize(name));
+            if (entity == null) throw new IllegalArgumentException("Unknown " + kind + " '" + name.trim() + "'");
+            return entity;
+        }
+    }
+
+    private record Row(long line, Product product) {}
+
+    private static class Report {
+        private long imported;
+        private long failed;
+        private final List<ProductImportErrorDto> errors = new ArrayList<>();
+
+        void fail(long line, String message) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) errors.add(new ProductImportErrorDto(line, message));
+        }
+
+        ProductImportResultDto toDto() {
+            return ProductImportResultDto.builder()
+                    .imported(imported)
+                    .failed(failed)
+                    .errors(errors)
+                    .errorsTruncated(failed > errors.size())
+                    .build();
+        }
+    }
+}
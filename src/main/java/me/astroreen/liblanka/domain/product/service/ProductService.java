@@ -1,13 +1,17 @@
 package me.astroreen.liblanka.domain.product.service;
 
-import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import jakarta.validation.constraints.NotBlank;
 import lombok.RequiredArgsConstructor;
+import me.astroreen.liblanka.domain.product.config.ProductCacheConfiguration;
 import me.astroreen.liblanka.domain.product.dto.ImageMetadataDto;
+import me.astroreen.liblanka.domain.product.dto.ProductCardDto;
 import me.astroreen.liblanka.domain.product.dto.ProductConstructionInfoDto;
+import me.astroreen.liblanka.domain.product.dto.ProductCursor;
 import me.astroreen.liblanka.domain.product.dto.ProductDto;
+import me.astroreen.liblanka.domain.product.dto.ProductFacetsDto;
 import me.astroreen.liblanka.domain.product.dto.ProductImageDto;
+import me.astroreen.liblanka.domain.product.dto.ProductSortOrder;
 import me.astroreen.liblanka.domain.product.dto.ProductVariantDto;
 import me.astroreen.liblanka.domain.product.entity.Product;
 import me.astroreen.liblanka.domain.product.entity.ProductColor;
@@ -15,6 +19,8 @@ import me.astroreen.liblanka.domain.product.entity.ProductImage;
 import me.astroreen.liblanka.domain.product.entity.ProductSize;
 import me.astroreen.liblanka.domain.product.entity.ProductType;
 import me.astroreen.liblanka.domain.product.entity.ProductVariant;
+import me.astroreen.liblanka.domain.product.entity.specifications.ProductSpecifications;
+import me.astroreen.liblanka.domain.product.event.ProductChangedEvent;
 import me.astroreen.liblanka.domain.product.repository.ProductColorRepository;
 import me.astroreen.liblanka.domain.product.repository.ProductRepository;
 import me.astroreen.liblanka.domain.product.repository.ProductSizeRepository;
@@ -23,9 +29,19 @@ import me.astroreen.liblanka.domain.product.repository.ProductVariantRepository;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -40,20 +56,31 @@ import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Map;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.LinkedHashMap;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class ProductService {
 
+    private static final int MAX_LISTED_PRODUCT_IDS = 1000;
+
     private final ProductRepository productRepository;
     private final ProductTypeRepository productTypeRepository;
     private final ProductColorRepository productColorRepository;
     private final ProductSizeRepository productSizeRepository;
     private final ProductVariantRepository productVariantRepository;
+    private final ProductImageService productImageService;
+    private final ProductFacetIndex productFacetIndex;
+    private final ApplicationEventPublisher eventPublisher;
     private final Logger logger = Logger.getLogger(getClass().getName());
 
     public Product findById(@NotNull Long id) throws NoSuchElementException {
@@ -104,21 +131,28 @@ public class ProductService {
             }
         }
 
-        // Add product variants, if exists
+        // Add product variants, if exists. An unknown color or size fails the whole product
         if (jsonVariants != null) {
             try {
                 product = parseJsonProductVariants(product, jsonVariants, null);
-            } catch (IOException | IllegalArgumentException e) {
+            } catch (IOException e) {
                 logger.log(Level.SEVERE, "Error while processing product variants", e);
             }
         }
 
-        return productRepository.save(product);
+        Product savedProduct = productRepository.save(product);
+        eventPublisher.publishEvent(new ProductChangedEvent(savedProduct.getId()));
+        return savedProduct;
     }
 
+    @Transactional
     public void deleteProduct(@NotNull Long id) throws NoSuchElementException {
         Product product = findById(id);
-        if (product != null) productRepository.delete(product);
+        if (product != null) {
+            productImageService.releaseContentAfterCommit(product.getImages());
+            productRepository.delete(product);
+            eventPublisher.publishEvent(new ProductChangedEvent(id));
+        }
     }
 
     public ProductConstructionInfoDto getProductConstructionInfo() {
@@ -133,6 +167,107 @@ public class ProductService {
         return productRepository.findAll(spec, pageable);
     }
 
+    /**
+     * Returns a page of catalog cards for the products matching the filter, in the order requested by the
+     * pageable and then by id, see {@link ProductSortOrder}. Without a requested order, search results come
+     * best match first. The cards and their cover images are read in one query, the total only needs another
+     * one if the page is full.
+     * <p>
+     * Type, sizes and colors are matched in the {@link ProductFacetIndex}. If nothing else is filtered, the matching
+     * ids are paged in memory and the database only loads the cards of the requested page.
+     * </p>
+     */
+    public Page<ProductCardDto> findCards(ProductSpecifications.Filter filter, Pageable pageable) {
+        Sort sort = pageable.getSort();
+        if (sort.getOrderFor("id") == null) sort = sort.and(Sort.by(Sort.Direction.ASC, "id")); // stable order across pages
+        Roaring64NavigableMap matches = productFacetIndex.match(filter.getTypeId(), filter.getColorIds(), filter.getSizeIds());
+        if (matches != null && !filter.hasAttributeCriteria() && sort.equals(ProductSortOrder.ID.getSort())) {
+            List<Long> pageIds = ProductFacetIndex.slice(matches, pageable.getOffset(), pageable.getPageSize());
+            return new PageImpl<>(findCardsByIds(pageIds), pageable, matches.getLongCardinality());
+        }
+
+        Specification<Product> spec = toSpecification(filter, matches);
+        Specification<Product> ordered = pageable.getSort().isUnsorted()
+                ? spec.and(ProductSpecifications.orderBySearchRelevance(filter.getSearch()))
+                : spec;
+        List<ProductCardDto> cards = productRepository.findCards(ordered, sort, pageable.getOffset(), pageable.getPageSize());
+        return PageableExecutionUtils.getPage(cards, pageable, () -> productRepository.count(spec));
+    }
+
+    /**
+     * Returns the catalog cards of the next {@code size} products matching the filter in the given order,
+     * starting after the cursor.
+     * <p>
+     * Unlike {@link #findCards(ProductSpecifications.Filter, Pageable)} this neither skips an offset nor counts all
+     * matches, so every slice costs the same however deep into the listing it is. One extra row is fetched to tell
+     * whether there is a next slice.
+     * </p>
+     *
+     * @param filter the filter to apply
+     * @param cursor the position after the last product of the previous slice, null for the first slice
+     * @param order  the order of the listing, must be the order of the cursor
+     * @param size   the maximum number of cards to return
+     * @throws IllegalArgumentException if the cursor belongs to a listing in another order
+     */
+    public Slice<ProductCardDto> findCardsAfter(ProductSpecifications.Filter filter, @Nullable ProductCursor cursor,
+                                                ProductSortOrder order, int size) throws IllegalArgumentException {
+        if (cursor != null && cursor.getOrder() != order) {
+            throw new IllegalArgumentException("Cursor of a listing by " + cursor.getOrder().getParam()
+                    + " used for a listing by " + order.getParam());
+        }
+
+        Roaring64NavigableMap matches = productFacetIndex.match(filter.getTypeId(), filter.getColorIds(), filter.getSizeIds());
+        List<ProductCardDto> cards;
+        if (matches != null && !filter.hasAttributeCriteria() && order == ProductSortOrder.ID) {
+            // matching ids up to and including the last one
+            long skipped = cursor == null ? 0 : matches.rankLong(cursor.getLastId());
+            cards = findCardsByIds(ProductFacetIndex.slice(matches, skipped, size + 1));
+        } else {
+            Specification<Product> spec = toSpecification(filter, matches);
+            Specification<Product> seek = cursor == null ? spec : spec.and(ProductSpecifications.after(cursor));
+            cards = productRepository.findCards(seek, order.getSort(), 0, size + 1);
+        }
+
+        boolean hasNext = cards.size() > size;
+        return new SliceImpl<>(hasNext ? cards.subList(0, size) : cards, PageRequest.ofSize(size), hasNext);
+    }
+
+    public long count(ProductSpecifications.Filter filter) {
+        Roaring64NavigableMap matches = productFacetIndex.match(filter.getTypeId(), filter.getColorIds(), filter.getSizeIds());
+        if (matches != null && !filter.hasAttributeCriteria()) return matches.getLongCardinality();
+        return productRepository.count(toSpecification(filter, matches));
+    }
+
+    /**
+     * Counts the products each filter option would leave, see {@link ProductFacetIndex#countFacets}.
+     * Only a name or search filter needs the database, everything else is counted from the index.
+     */
+    public ProductFacetsDto countFacets(ProductSpecifications.Filter filter) {
+        ProductSpecifications.Filter textFilter = ProductSpecifications.Filter.builder()
+                .nameLike(filter.getNameLike())
+                .search(filter.getSearch())
+                .build();
+        List<Long> candidates = null;
+        if (textFilter.hasAttributeCriteria()) {
+            candidates = productRepository.findIds(ProductSpecifications.filterBy(textFilter));
+        }
+        return productFacetIndex.countFacets(candidates, filter);
+    }
+
+    private List<ProductCardDto> findCardsByIds(List<Long> ids) {
+        if (ids.isEmpty()) return List.of();
+        return productRepository.findCards(ProductSpecifications.hasIdIn(ids), Sort.by(Sort.Direction.ASC, "id"), 0, ids.size());
+    }
+
+    // A broad facet can match more ids than a query may bind, those are left to the variant subqueries instead
+    private static Specification<Product> toSpecification(ProductSpecifications.Filter filter,
+                                                          @Nullable Roaring64NavigableMap matches) {
+        boolean listIds = matches != null && matches.getLongCardinality() <= MAX_LISTED_PRODUCT_IDS;
+        return ProductSpecifications.filterBy(filter.toBuilder()
+                .productIds(listIds ? ProductFacetIndex.toList(matches) : null)
+                .build());
+    }
+
     @Transactional
     public void updateProductTypes(Long oldTypeId, Long newTypeId) {
         ProductType newType = productTypeRepository.findById(newTypeId)
@@ -143,6 +278,7 @@ public class ProductService {
             product.setType(newType);
         }
         productRepository.saveAll(productsToUpdate);
+        eventPublisher.publishEvent(ProductChangedEvent.allProducts());
     }
 
     @Transactional
@@ -152,6 +288,7 @@ public class ProductService {
         
         // Update product variants that use the old size
         productVariantRepository.updateSizeId(oldSizeId, newSizeId);
+        eventPublisher.publishEvent(ProductChangedEvent.allProducts());
     }
 
     /**
@@ -170,56 +307,50 @@ public class ProductService {
      * 
      * @param id the ID of the product to retrieve
      * @return a {@link ProductDto} containing all details of the specified product
-     * @throws EntityNotFoundException if the product with the given ID does not exist
+     * @throws NoSuchElementException if the product with the given ID does not exist
      */
     @Transactional
+    @Cacheable(cacheNames = ProductCacheConfiguration.PRODUCT_DETAILS, key = "#id")
     public ProductDto getProductDetails(Long id) {
-        Product product = findById(id);
+        // One query for the product with type, variants, colors and sizes, one for the images
+        Product product = productRepository.findDetailsById(id)
+                .orElseThrow(() -> new NoSuchElementException("There was not such product in database with id " + id));
 
         //Create list of image dtos
-        List<ProductImageDto> images = product.getImages() != null ? product.getImages().stream()
-            .map((me.astroreen.liblanka.domain.product.entity.ProductImage img) -> ProductImageDto.builder()
+        List<ProductImageDto> images = productImageService.findAllByProductId(id).stream()
+            .map(img -> ProductImageDto.builder()
                 .id(img.getId())
                 .productId(id)
                 .colorId(img.getColor() != null ? img.getColor().getId() : null)
                 .imageId(img.getId() != null ? img.getId().toString() : null)
+                .status(img.getStatus())
                 .build())
-            .collect(Collectors.toList()) : Collections.emptyList();
-
-        // Create list of variant dtos
-        List<ProductVariantDto> variants = product.getVariants() != null ? product.getVariants().stream()
-            .map(v -> ProductVariantDto.builder()
-                .colorId(v.getColor().getId())
-                .sizeId(v.getSize().getId())
-                .quantity(v.getQuantity())
-                .build())
-            .collect(Collectors.toList()) : Collections.emptyList();
-        // Create map of variants by color
+            .collect(Collectors.toList());
+
+        // Collect variants, variants by color, colors and sizes in a single pass over the variants
+        List<ProductVariantDto> variants = new ArrayList<>();
         Map<Long, List<ProductVariantDto>> variantsByColor = new HashMap<>();
+        Map<Long, ProductColor> colorsById = new LinkedHashMap<>();
+        Map<Long, ProductSize> sizesById = new LinkedHashMap<>();
         if (product.getVariants() != null) {
-            product.getVariants().forEach(v -> {
-                if (v.getColor() != null) {
-                    variantsByColor.computeIfAbsent(v.getColor().getId(), k -> new java.util.ArrayList<>())
-                        .add(ProductVariantDto.builder()
-                            .colorId(v.getColor().getId())
-                            .sizeId(v.getSize().getId())
-                            .quantity(v.getQuantity())
-                            .build());
-                }
-            });
+            for (ProductVariant v : product.getVariants()) {
+                ProductColor color = v.getColor();
+                ProductSize size = v.getSize();
+                ProductVariantDto variant = ProductVariantDto.builder()
+                    .colorId(color.getId())
+                    .sizeId(size.getId())
+                    .quantity(v.getQuantity())
+                    .build();
+                variants.add(variant);
+                variantsByColor.computeIfAbsent(color.getId(), k -> new ArrayList<>()).add(variant);
+                colorsById.computeIfAbsent(color.getId(),
+                        k -> ProductColor.builder().id(color.getId()).name(color.getName()).hex(color.getHex()).build());
+                sizesById.computeIfAbsent(size.getId(),
+                        k -> ProductSize.builder().id(size.getId()).name(size.getName()).build());
+            }
         }
-        // Create list of color dtos
-        List<ProductColor> colors = product.getVariants() != null ? product.getVariants().stream()
-            .map(v -> v.getColor())
-            .distinct()
-            .map(c -> ProductColor.builder().id(c.getId()).name(c.getName()).hex(c.getHex()).build())
-            .collect(Collectors.toList()) : Collections.emptyList();
-        // Create list of size dtos
-        List<ProductSize> sizes = product.getVariants() != null ? product.getVariants().stream()
-            .map(v -> v.getSize())
-            .distinct()
-            .map(s -> ProductSize.builder().id(s.getId()).name(s.getName()).build())
-            .collect(Collectors.toList()) : Collections.emptyList();
+        List<ProductColor> colors = new ArrayList<>(colorsById.values());
+        List<ProductSize> sizes = new ArrayList<>(sizesById.values());
         // Create product type dto
         ProductType type = product.getType() != null ? ProductType.builder().id(product.getType().getId()).name(product.getType().getName()).build() : null;
 
@@ -293,17 +424,8 @@ public class ProductService {
         if (jsonProductAttributes != null) product.setAttributes(mapper.readValue(jsonProductAttributes, new TypeReference<List<String>>(){}));
         // Update variants
         if (jsonProductVariants != null) {
-            product.getVariants().clear();
             List<ProductVariantDto> variants = mapper.readValue(jsonProductVariants, new TypeReference<List<ProductVariantDto>>(){});
-            for (ProductVariantDto v : variants) {
-                ProductVariant variant = ProductVariant.builder()
-                .product(product)
-                .color(productColorRepository.findById(v.getColorId()).orElseThrow())
-                .size(productSizeRepository.findById(v.getSizeId()).orElseThrow())
-                .quantity(v.getQuantity())
-                .build();
-                product.getVariants().add(variant);
-            }
+            reconcileVariants(product, variants);
         }
 
         // Update images' data
@@ -334,18 +456,24 @@ public class ProductService {
         if (deleteImagesIdsList != null) {
             // Process image deletions
             List<ProductImage> imagesToUpdate = new ArrayList<>(product.getImages());
-            imagesToUpdate.removeIf(img -> deleteImagesIdsList.contains(img.getId()));
+            List<ProductImage> deletedImages = imagesToUpdate.stream()
+                    .filter(img -> deleteImagesIdsList.contains(img.getId()))
+                    .toList();
+            imagesToUpdate.removeAll(deletedImages);
+            productImageService.releaseContentAfterCommit(deletedImages); // shared files stay until no image uses them
             product.setImages(imagesToUpdate);
         }
 
         // Save product
         productRepository.save(product); // The updated details will now be updated/saved to the database because of cascade settings
+        eventPublisher.publishEvent(new ProductChangedEvent(id));
         return getProductDetails(id);
     }
 
     /**
      * Parses a JSON string representing product variants, creates corresponding {@link ProductVariant} entities,
-     * associates them with the given original product, and persists them.
+     * and associates them with the given original product. The variants are persisted together with the product,
+     * through the cascade of {@link Product#getVariants()}.
      *
      * @param originalProduct the original {@link Product} to associate the variants with
      * @param jsonVariants the JSON string containing the product variants data
@@ -362,22 +490,94 @@ public class ProductService {
         
         List<ProductVariantDto> variants = parseJsonProductVariants(mapper, jsonVariants);
 
+        List<ProductVariant> productVariants = createVariants(originalProduct, variants);
+        originalProduct.setVariants(productVariants);
+        return originalProduct;
+    }
+
+    /**
+     * Brings the variants of the product in line with the requested ones, matching them by color and size.
+     * Variants that are requested again keep their row and only have their quantity updated if it changed,
+     * variants that are not requested anymore are deleted and only new combinations are inserted.
+     * If a combination is requested more than once, the last quantity wins.
+     *
+     * @param product  the product whose variants are updated
+     * @param variants the complete list of variants the product should have
+     * @throws IllegalArgumentException if a new variant references a color or size ID that does not exist
+     */
+    private void reconcileVariants(@NotNull Product product, @NotNull List<ProductVariantDto> variants)
+            throws IllegalArgumentException {
+        Map<VariantKey, ProductVariantDto> requested = new LinkedHashMap<>();
+        variants.forEach(variant -> requested.put(new VariantKey(variant.getColorId(), variant.getSizeId()), variant));
+
+        Map<VariantKey, ProductVariant> existing = new HashMap<>();
+        Iterator<ProductVariant> iterator = product.getVariants().iterator();
+        while (iterator.hasNext()) {
+            ProductVariant variant = iterator.next();
+            VariantKey key = new VariantKey(variant.getColor().getId(), variant.getSize().getId());
+            ProductVariantDto update = requested.get(key);
+            if (update == null || existing.containsKey(key)) {
+                iterator.remove(); // deleted by orphan removal
+                continue;
+            }
+            existing.put(key, variant);
+            if (!Objects.equals(variant.getQuantity(), update.getQuantity())) variant.setQuantity(update.getQuantity());
+        }
+
+        List<ProductVariantDto> added = requested.entrySet().stream()
+                .filter(entry -> !existing.containsKey(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .toList();
+        if (!added.isEmpty()) product.getVariants().addAll(createVariants(product, added));
+    }
+
+    private record VariantKey(Long colorId, Long sizeId) {}
+
+    /**
+     * Creates the {@link ProductVariant} entities of the product. The colors and sizes of all variants are loaded
+     * with one query each, before anything is created, so a product with many variants costs the same number
+     * of queries as one with a single variant.
+     *
+     * @param product  the product the variants belong to
+     * @param variants the requested variants
+     * @return new, unsaved variants in the order of {@code variants}
+     * @throws IllegalArgumentException if a referenced color or size ID does not exist
+     */
+    private @NotNull List<ProductVariant> createVariants(@NotNull Product product, @NotNull List<ProductVariantDto> variants)
+            throws IllegalArgumentException {
+        Map<Long, ProductColor> colors = findAllById(productColorRepository, ProductColor::getId,
+                variants.stream().map(ProductVariantDto::getColorId).toList(), "color");
+        Map<Long, ProductSize> sizes = findAllById(productSizeRepository, ProductSize::getId,
+                variants.stream().map(ProductVariantDto::getSizeId).toList(), "size");
+
         List<ProductVariant> productVariants = new ArrayList<>(variants.size());
         for (ProductVariantDto variant : variants) {
-            ProductVariant productVariant = ProductVariant.builder()
-                    .product(originalProduct)
-                    .color(productColorRepository.findById(variant.getColorId())
-                            .orElseThrow(() -> new IllegalArgumentException("Invalid product color ID")))
-                    .size(productSizeRepository.findById(variant.getSizeId())
-                            .orElseThrow(() -> new IllegalArgumentException("Invalid product size ID")))
+            productVariants.add(ProductVariant.builder()
+                    .product(product)
+                    .color(colors.get(variant.getColorId()))
+                    .size(sizes.get(variant.getSizeId()))
                     .quantity(variant.getQuantity())
-                    .build();
+                    .build());
+        }
+        return productVariants;
+    }
 
-            productVariants.add(productVariant);
+    // Loads the distinct referenced entities at once, failing if any of them does not exist
+    private static <T> @NotNull Map<Long, T> findAllById(@NotNull JpaRepository<T, Long> repository, @NotNull Function<T, Long> idOf,
+                                                         @NotNull Collection<Long> ids, @NotNull String name)
+            throws IllegalArgumentException {
+        if (ids.contains(null)) throw new IllegalArgumentException("Missing product " + name + " ID");
+
+        Set<Long> distinctIds = new HashSet<>(ids);
+        Map<Long, T> entities = new HashMap<>();
+        for (T entity : repository.findAllById(distinctIds)) {
+            entities.put(idOf.apply(entity), entity);
         }
-        productVariantRepository.saveAll(productVariants);
-        originalProduct.setVariants(productVariants);
-        return originalProduct;
+        if (entities.size() != distinctIds.size()) {
+            distinctIds.removeAll(entities.keySet());
+            throw new IllegalArgumentException("Invalid product " + name + " IDs " + distinctIds);
+        }
+        return entities;
     }
 
     /**
@@ -434,39 +634,34 @@ public class ProductService {
      * <p>
      * For each entry in the provided images map, this method finds the matching metadata by key,
      * retrieves the associated color from the repository, and constructs a new {@code ProductImage} object.
-     * The image data is read from the {@link MultipartFile}, and the resulting images are associated with the given product.
+     * The image data is read from the {@link MultipartFile} and put into the image store, and the resulting
+     * images are associated with the given product. They stay pending until converted to webp in the background.
      * </p>
      *
      * @param product   the {@link Product} to associate the new images with
      * @param imagesMap a map where the key is a string identifier and the value is the image file as a {@link MultipartFile}
      * @param metadata  a list of {@link ImageMetadataDto} containing metadata for each image, including the key and color ID
      * @return a list of newly created {@link ProductImage} objects associated with the product
-     * @throws IOException if an error occurs while reading image data from the files
+     * @throws IOException if an error occurs while reading or storing image data
      */
     private List<ProductImage> uniteNewImagesWithMetadata(Product product, Map<String, MultipartFile> imagesMap, List<ImageMetadataDto> metadata)
         throws IOException
     {
-        List<ProductImage> newImages = new ArrayList<>();
+        List<MultipartFile> files = new ArrayList<>();
+        List<ProductColor> colors = new ArrayList<>();
         // Process each image
         for (Map.Entry<String, MultipartFile> entry : imagesMap.entrySet()) {
             String key = entry.getKey();
-            MultipartFile file = entry.getValue();
             // Find corresponding metadata
             ImageMetadataDto meta = metadata.stream()
                     .filter(m -> m.getKey().equals(key))
                     .findFirst()
                     .orElse(null);
             if (meta != null) {
-                ProductImage newImage = ProductImage.builder()
-                            .imageData(file.getBytes())
-                            .product(product)
-                            .color(productColorRepository.findById(meta.getColorId()).orElseThrow())
-                            .build();
-
-                // Add the new image if it was created successfully
-                newImages.add(newImage);
+                files.add(entry.getValue());
+                colors.add(productColorRepository.findById(meta.getColorId()).orElseThrow());
             }
         }
-        return newImages;
+        return productImageService.createImages(product, files, colors);
     }
 }
@@ -0,0 +1,257 @@
+package me.astroreen.liblanka.domain.product.service;
+
+import jakarta.annotation.PostConstruct;
+import me.astroreen.liblanka.domain.product.dto.ProductSuggestionDto;
+import me.astroreen.liblanka.domain.product.entity.ProductType;
+import me.astroreen.liblanka.domain.product.event.ProductChangedEvent;
+import me.astroreen.liblanka.domain.product.event.ProductTypeChangedEvent;
+import me.astroreen.liblanka.domain.product.repository.ProductRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductTypeRepository;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory autocomplete over product and type names.
+ * <p>
+ * Names are looked up by prefix of the whole name or of any of its words, in a sorted map. If that finds fewer
+ * suggestions than asked for, names sharing enough trigrams with the input are added, which tolerates typos.
+ * The index is built at startup and updated product by product from {@link ProductChangedEvent}s and type by type
+ * from {@link ProductTypeChangedEvent}s once the change has been committed, only the keys of the changed name
+ * are touched. Suggestions never touch the database.
+ * </p>
+ */
+@Service
+public class ProductSuggestIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSuggestIndex.class);
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int MIN_FUZZY_LENGTH = 3; // shorter input has too few trigrams to compare
+    private static final double MIN_SIMILARITY = 0.3;
+    private static final int PREFIX_CANDIDATES_PER_SUGGESTION = 8;
+
+    private final ProductRepository productRepository;
+    private final ProductTypeRepository productTypeRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Normalized name, and every tail of it starting at a word, to its entries
+    private final TreeMap<String, Set<Entry>> byPrefix = new TreeMap<>();
+    private final Map<String, Set<Entry>> byTrigram = new HashMap<>();
+    private final Map<Long, Entry> productEntries = new HashMap<>(); // to take a product out of the maps again
+    private final Map<Long, Entry> typeEntries = new HashMap<>();
+
+    public ProductSuggestIndex(ProductRepository productRepository,
+                               ProductTypeRepository productTypeRepository,
+                               PlatformTransactionManager transactionManager) {
+        this.productRepository = productRepository;
+        this.productTypeRepository = productTypeRepository;
+        // Events are handled after the publishing transaction committed, reads need a transaction of their own
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    // Updates read the database and apply what they read one at a time, otherwise an update that read older data
+    // could overwrite a newer one. Suggestions only take the read lock and are not held up by the reads.
+    @PostConstruct
+    public synchronized void rebuild() {
+        Map<Long, Entry> products = new HashMap<>();
+        Map<Long, Entry> types = new HashMap<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Object[] row : productRepository.findAllNames()) {
+                products.put((Long) row[0], productEntry((Long) row[0], (String) row[1]));
+            }
+            for (ProductType type : productTypeRepository.findAll()) {
+                types.put(type.getId(), typeEntry(type));
+            }
+        });
+
+        lock.writeLock().lock();
+        try {
+            byPrefix.clear();
+            byTrigram.clear();
+            productEntries.clear();
+            typeEntries.clear();
+            products.forEach((id, entry) -> put(productEntries, id, entry));
+            types.forEach((id, entry) -> put(typeEntries, id, entry));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Indexed {} product names for suggestions", products.size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onProductChanged(@NotNull ProductChangedEvent event) {
+        Long productId = event.getProductId();
+        if (productId == null) {
+            rebuild();
+            return;
+        }
+
+        Entry product = transactionTemplate.execute(status ->
+                productRepository.findNameById(productId).map(name -> productEntry(productId, name)).orElse(null));
+
+        lock.writeLock().lock();
+        try {
+            put(productEntries, productId, product); // deleted if null
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onProductTypeChanged(@NotNull ProductTypeChangedEvent event) {
+        Long typeId = event.getTypeId();
+        Entry type = transactionTemplate.execute(status ->
+                productTypeRepository.findById(typeId).map(ProductSuggestIndex::typeEntry).orElse(null));
+
+        lock.writeLock().lock();
+        try {
+            put(typeEntries, typeId, type); // deleted if null
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Suggests up to {@code limit} product and type names for what has been typed so far.
+     * Prefix matches come first, shorter names before longer ones, followed by similar names.
+     */
+    public @NotNull List<ProductSuggestionDto> suggest(@NotNull String input, int limit) {
+        String query = normalize(input);
+        if (query.isEmpty() || limit <= 0) return List.of();
+
+        lock.readLock().lock();
+        try {
+            return suggestLocked(query, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private @NotNull List<ProductSuggestionDto> suggestLocked(@NotNull String query, int limit) {
+        Set<Entry> prefixMatches = new LinkedHashSet<>();
+        for (Set<Entry> matches : byPrefix.subMap(query, true, query + Character.MAX_VALUE, false).values()) {
+            prefixMatches.addAll(matches);
+            if (prefixMatches.size() >= limit * PREFIX_CANDIDATES_PER_SUGGESTION) break;
+        }
+
+        Set<Entry> result = new LinkedHashSet<>();
+        prefixMatches.stream()
+                .sorted(Comparator.comparingInt((Entry entry) -> entry.normalized.startsWith(query) ? 0 : 1)
+                        .thenComparingInt(entry -> entry.normalized.length()))
+                .limit(limit)
+                .forEach(result::add);
+
+        if (result.size() < limit && query.length() >= MIN_FUZZY_LENGTH) {
+            Set<String> queryTrigrams = trigrams(query);
+            Map<Entry, Integer> shared = new HashMap<>();
+            for (String trigram : queryTrigrams) {
+                for (Entry entry : byTrigram.getOrDefault(trigram, Set.of())) {
+                    shared.merge(entry, 1, Integer::sum);
+                }
+            }
+
+            Map<Entry, Double> similarity = new HashMap<>();
+            shared.forEach((entry, common) -> similarity.put(entry,
+                    (double) common / (queryTrigrams.size() + entry.trigrams.size() - common)));
+            similarity.entrySet().stream()
+                    .filter(candidate -> candidate.getValue() >= MIN_SIMILARITY && !result.contains(candidate.getKey()))
+                    .sorted(Map.Entry.<Entry, Double>comparingByValue().reversed())
+                    .limit(limit - result.size())
+                    .forEach(candidate -> result.add(candidate.getKey()));
+        }
+
+        return result.stream().map(entry -> entry.suggestion).toList();
+    }
+
+    // Replaces the entry indexed under the id, must hold the write lock
+    private void put(@NotNull Map<Long, Entry> entries, @NotNull Long id, @Nullable Entry entry) {
+        Entry previous = entry != null ? entries.put(id, entry) : entries.remove(id);
+        if (previous != null) {
+            prefixKeys(previous).forEach(key -> detach(byPrefix, key, previous));
+            previous.trigrams.forEach(trigram -> detach(byTrigram, trigram, previous));
+        }
+        if (entry != null) {
+            prefixKeys(entry).forEach(key -> byPrefix.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(entry));
+            entry.trigrams.forEach(trigram -> byTrigram.computeIfAbsent(trigram, t -> new LinkedHashSet<>()).add(entry));
+        }
+    }
+
+    private static void detach(@NotNull Map<String, Set<Entry>> index, @NotNull String key, @NotNull Entry entry) {
+        Set<Entry> entries = index.get(key);
+        if (entries == null) return;
+        entries.remove(entry);
+        if (entries.isEmpty()) index.remove(key);
+    }
+
+    private static @NotNull List<String> prefixKeys(@NotNull Entry entry) {
+        List<String> keys = new ArrayList<>();
+        if (entry.normalized.isEmpty()) return keys;
+
+        String key = entry.normalized;
+        while (true) {
+            keys.add(key);
+            int space = key.indexOf(' ');
+            if (space < 0) return keys;
+            key = key.substring(space + 1);
+        }
+    }
+
+    private static @NotNull Entry productEntry(@NotNull Long id, @NotNull String name) {
+        return new Entry(normalize(name), ProductSuggestionDto.builder().text(name).productId(id).build());
+    }
+
+    private static @NotNull Entry typeEntry(@NotNull ProductType type) {
+        return new Entry(normalize(type.getName()),
+                ProductSuggestionDto.builder().text(type.getName()).typeId(type.getId()).build());
+    }
+
+    private static @NotNull String normalize(@NotNull String text) {
+        return NON_WORD.matcher(text.toLowerCase()).replaceAll(" ").trim();
+    }
+
+    private static @NotNull Set<String> trigrams(@NotNull String normalized) {
+        Set<String> trigrams = new HashSet<>();
+        for (String word : normalized.split(" ")) {
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                trigrams.add(padded.substring(i, i + 3));
+            }
+        }
+        return trigrams;
+    }
+
+    private static class Entry {
+        private final String normalized;
+        private final ProductSuggestionDto suggestion;
+        private final Set<String> trigrams;
+
+        private Entry(@NotNull String normalized, @NotNull ProductSuggestionDto suggestion) {
+            this.normalized = normalized;
+            this.suggestion = suggestion;
+            this.trigrams = normalized.isEmpty() ? Set.of() : trigrams(normalized);
+        }
+    }
+}
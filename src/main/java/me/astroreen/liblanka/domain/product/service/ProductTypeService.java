@@ -3,8 +3,10 @@ package me.astroreen.liblanka.domain.product.service;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import me.astroreen.liblanka.domain.product.entity.ProductType;
+import me.astroreen.liblanka.domain.product.event.ProductTypeChangedEvent;
 import me.astroreen.liblanka.domain.product.repository.ProductTypeRepository;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 
@@ -16,13 +18,16 @@ public class ProductTypeService {
 
     private final ProductTypeRepository productTypeRepository;
     private final ProductService productService;
+    private final ApplicationEventPublisher eventPublisher;
 
     public List<ProductType> findAll() {
         return productTypeRepository.findAll();
     }
 
     public @NotNull ProductType create(@NotNull String name) throws IllegalArgumentException, OptimisticLockingFailureException {
-        return productTypeRepository.save(ProductType.builder().name(name).build());
+        ProductType type = productTypeRepository.save(ProductType.builder().name(name).build());
+        eventPublisher.publishEvent(new ProductTypeChangedEvent(type.getId()));
+        return type;
     }
 
     @Transactional
@@ -33,5 +38,6 @@ public class ProductTypeService {
         
         // Delete the original type
         productTypeRepository.delete(typeToDelete);
+        eventPublisher.publishEvent(new ProductTypeChangedEvent(typeToDelete.getId()));
     }
 }
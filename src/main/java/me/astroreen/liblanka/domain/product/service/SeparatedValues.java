@@ -0,0 +1,53 @@
+package me.astroreen.liblanka.domain.product.service;
+
+import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Joins values into one string and splits them again, for the lists and variants of import and export files.
+ * A separator or backslash inside a value is escaped with a backslash, so any value survives the round trip.
+ * Text without backslashes splits at every separator, as written by hand.
+ */
+@UtilityClass
+class SeparatedValues {
+
+    private static final char ESCAPE = '\\';
+
+    static @NotNull String join(@NotNull List<String> values, char separator) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (!joined.isEmpty()) joined.append(separator);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == separator || c == ESCAPE) joined.append(ESCAPE);
+                joined.append(c);
+            }
+        }
+        return joined.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text ends in an unfinished escape
+     */
+    static @NotNull List<String> split(@NotNull String joined, char separator) throws IllegalArgumentException {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < joined.length(); i++) {
+            char c = joined.charAt(i);
+            if (c == ESCAPE) {
+                if (++i == joined.length()) throw new IllegalArgumentException("Dangling escape in '" + joined + "'");
+                value.append(joined.charAt(i));
+            } else if (c == separator) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+}
@@ -0,0 +1,90 @@
+package me.astroreen.liblanka.domain.product.storage;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.SetupException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Liquibase task that copies every {@code product_images.image_data} large object into the {@link ImageStore}
+ * and records the resulting content hash and length on the row.
+ * <p>
+ * Rows are streamed with a small fetch size, so the migration never holds more than a handful of images in memory.
+ * The store location is passed in as the {@code storagePath} changelog parameter, because Spring beans are not
+ * available while Liquibase runs.
+ * </p>
+ */
+public class ImageDataToStoreMigration implements CustomTaskChange {
+
+    private static final int FETCH_SIZE = 16;
+
+    @Setter
+    private String storagePath;
+    private int migratedImages;
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        ImageStore store = new LocalFileSystemImageStore(Path.of(storagePath));
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+
+        try (PreparedStatement select = connection.prepareStatement(
+                     "SELECT id, image_data FROM product_images WHERE content_hash IS NULL");
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE product_images SET content_hash = ?, content_length = ? WHERE id = ?")) {
+            select.setFetchSize(FETCH_SIZE);
+
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    Blob blob = rows.getBlob("image_data");
+                    StoredImage stored;
+                    try (InputStream content = blob.getBinaryStream()) {
+                        stored = store.save(content);
+                    }
+
+                    update.setString(1, stored.getHash());
+                    update.setLong(2, stored.getLength());
+                    update.setLong(3, rows.getLong("id"));
+                    update.executeUpdate();
+                    migratedImages++;
+                }
+            }
+        } catch (SQLException | IOException e) {
+            throw new CustomChangeException("Could not move product images to " + storagePath, e);
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Moved " + migratedImages + " product images to " + storagePath;
+    }
+
+    @Override
+    public void setUp() throws SetupException {
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        ValidationErrors errors = new ValidationErrors();
+        if (storagePath == null || storagePath.isBlank()) {
+            errors.addError("storagePath must point to the image storage directory");
+        }
+        return errors;
+    }
+}
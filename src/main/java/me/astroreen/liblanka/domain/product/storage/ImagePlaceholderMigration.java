@@ -0,0 +1,97 @@
+package me.astroreen.liblanka.domain.product.storage;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.SetupException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import lombok.Setter;
+import me.astroreen.liblanka.domain.product.util.WebpConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Liquibase task that fills in {@code width}, {@code height} and {@code placeholder} of product images
+ * uploaded before those columns existed, by decoding each stored webp once.
+ * Images whose content can not be decoded are left untouched, the columns are optional.
+ */
+public class ImagePlaceholderMigration implements CustomTaskChange {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagePlaceholderMigration.class);
+    private static final int FETCH_SIZE = 64;
+
+    @Setter
+    private String storagePath;
+    private int updatedImages;
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        ImageStore store = new LocalFileSystemImageStore(Path.of(storagePath));
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+
+        try (PreparedStatement select = connection.prepareStatement(
+                     "SELECT id, content_hash FROM product_images WHERE placeholder IS NULL");
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE product_images SET width = ?, height = ?, placeholder = ? WHERE id = ?")) {
+            select.setFetchSize(FETCH_SIZE);
+
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    BufferedImage image;
+                    String placeholder;
+                    try (ImageInputStream content = store.openImage(rows.getString("content_hash"))) {
+                        image = WebpConverter.read(content, 0);
+                        placeholder = WebpConverter.placeholder(image);
+                    } catch (IOException e) {
+                        log.warn("Could not compute the placeholder of product image {}", rows.getLong("id"), e);
+                        continue;
+                    }
+
+                    update.setInt(1, image.getWidth());
+                    update.setInt(2, image.getHeight());
+                    update.setString(3, placeholder);
+                    update.setLong(4, rows.getLong("id"));
+                    update.executeUpdate();
+                    updatedImages++;
+                }
+            }
+        } catch (SQLException e) {
+            throw new CustomChangeException("Could not compute placeholders of product images", e);
+        } finally {
+            WebpConverter.disposeWriter(); // runs on the startup thread, which lives on after the migration
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Computed dimensions and placeholders of " + updatedImages + " product images";
+    }
+
+    @Override
+    public void setUp() throws SetupException {
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        ValidationErrors errors = new ValidationErrors();
+        if (storagePath == null || storagePath.isBlank()) {
+            errors.addError("storagePath must point to the image storage directory");
+        }
+        return errors;
+    }
+}
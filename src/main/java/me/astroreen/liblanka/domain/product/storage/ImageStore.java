@@ -0,0 +1,78 @@
+package me.astroreen.liblanka.domain.product.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.core.io.Resource;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Content-addressed storage for encoded product images.
+ * <p>
+ * Images are keyed by the lowercase hex SHA-256 of their bytes, so storing the same content twice
+ * yields the same key and only one copy. The database keeps nothing but that key and the length.
+ * </p>
+ */
+public interface ImageStore {
+
+    /**
+     * Stores the content of the given stream and returns its key. The stream is read to the end but not closed.
+     *
+     * @param content the image bytes to store
+     * @return the content hash and length of the stored image
+     * @throws IOException if the content could not be read or written
+     */
+    default @NotNull StoredImage save(@NotNull InputStream content) throws IOException {
+        return save(content::transferTo);
+    }
+
+    default @NotNull StoredImage save(@NotNull byte[] content) throws IOException {
+        return save(out -> out.write(content));
+    }
+
+    /**
+     * Stores whatever the given writer produces and returns its key. Lets encoders write straight into the store
+     * without collecting their output in memory first.
+     *
+     * @param content writes the image bytes to the stream it is handed, without closing it
+     * @return the content hash and length of the stored image
+     * @throws IOException if the content could not be produced or written
+     */
+    @NotNull StoredImage save(@NotNull ContentWriter content) throws IOException;
+
+    /**
+     * Opens the image stored under the given hash. The caller is responsible for closing the stream.
+     *
+     * @throws java.nio.file.NoSuchFileException if nothing is stored under this hash
+     */
+    @NotNull InputStream open(@NotNull String hash) throws IOException;
+
+    /**
+     * Opens the image stored under the given hash for decoding. Unlike {@link #open(String)} the stream can seek,
+     * so decoders do not need to cache what they have read on the heap. The caller is responsible for closing it.
+     *
+     * @throws java.io.FileNotFoundException if nothing is stored under this hash
+     */
+    @NotNull ImageInputStream openImage(@NotNull String hash) throws IOException;
+
+    /**
+     * Returns a lazily opened handle to the image stored under the given hash, suitable for streaming
+     * it straight into an HTTP response (including byte ranges) without buffering it on the heap.
+     */
+    @NotNull Resource getResource(@NotNull String hash);
+
+    boolean exists(@NotNull String hash);
+
+    /**
+     * Removes the image stored under the given hash. Does nothing if it does not exist.
+     * Callers must make sure no other image row still references the same hash.
+     */
+    void delete(@NotNull String hash) throws IOException;
+
+    @FunctionalInterface
+    interface ContentWriter {
+        void writeTo(@NotNull OutputStream out) throws IOException;
+    }
+}
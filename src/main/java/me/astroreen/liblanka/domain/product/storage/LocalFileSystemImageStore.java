@@ -0,0 +1,109 @@
+package me.astroreen.liblanka.domain.product.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * {@link ImageStore} that keeps images as plain files below a root directory.
+ * <p>
+ * A file is sharded by the first two bytes of its hash, e.g. {@code ab/cd/abcd1234...}, so no single
+ * directory grows too large. Content is first written to a temporary file in the root directory and then
+ * atomically moved into place, so readers never observe a partially written image.
+ * </p>
+ */
+public class LocalFileSystemImageStore implements ImageStore {
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final Path root;
+
+    public LocalFileSystemImageStore(@NotNull Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public @NotNull StoredImage save(@NotNull ContentWriter content) throws IOException {
+        Files.createDirectories(root);
+        Path temporary = Files.createTempFile(root, "upload-", ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            try (OutputStream out = new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporary)), digest)) {
+                content.writeTo(out);
+            }
+            long length = Files.size(temporary);
+
+            String hash = HexFormat.of().formatHex(digest.digest());
+            Path target = resolve(hash);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException ignored) {
+                    // Stored concurrently by another upload of the same content
+                }
+            }
+            return new StoredImage(hash, length);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    @Override
+    public @NotNull InputStream open(@NotNull String hash) throws IOException {
+        return Files.newInputStream(resolve(hash));
+    }
+
+    @Override
+    public @NotNull ImageInputStream openImage(@NotNull String hash) throws IOException {
+        return new FileImageInputStream(resolve(hash).toFile());
+    }
+
+    @Override
+    public @NotNull Resource getResource(@NotNull String hash) {
+        return new FileSystemResource(resolve(hash));
+    }
+
+    @Override
+    public boolean exists(@NotNull String hash) {
+        return Files.exists(resolve(hash));
+    }
+
+    @Override
+    public void delete(@NotNull String hash) throws IOException {
+        Files.deleteIfExists(resolve(hash));
+    }
+
+    private @NotNull Path resolve(@NotNull String hash) {
+        if (!HASH_PATTERN.matcher(hash).matches()) {
+            throw new IllegalArgumentException("Invalid image hash: " + hash);
+        }
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static @NotNull MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not supported by this JVM", e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package me.astroreen.liblanka.domain.product.storage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class StoredImage {
+    private final String hash; // hex encoded SHA-256 of the content
+    private final long length;
+}
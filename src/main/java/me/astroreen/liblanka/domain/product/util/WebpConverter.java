@@ -0,0 +1,188 @@
+package me.astroreen.liblanka.domain.product.util;
+
+import com.luciad.imageio.webp.WebPWriteParam;
+import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.NotNull;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+@UtilityClass
+public class WebpConverter {
+
+    public static final float DEFAULT_QUALITY = 0.8f; // 80% quality
+
+    private static final String WEBP_MIME_TYPE = "image/webp";
+    private static final int PLACEHOLDER_WIDTH = 16;
+    private static final float PLACEHOLDER_QUALITY = 0.3f;
+
+    // Looking up a writer goes through the IIORegistry every time, so each thread keeps its own writer and the write
+    // params per quality. Writers are not thread safe, but can be reused one image after another.
+    // Threads that encode release theirs with disposeWriter() before they end.
+    private static final ThreadLocal<ImageWriter> WRITER = new ThreadLocal<>();
+    private static final ThreadLocal<Map<Float, ImageWriteParam>> WRITE_PARAMS = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Decodes an image in any format supported by {@link ImageIO}, webp included.
+     *
+     * @throws IOException if the stream can not be read or the format is not supported
+     */
+    public static @NotNull BufferedImage read(@NotNull InputStream content) throws IOException {
+        return read(content, 0);
+    }
+
+    /**
+     * Decodes an image no wider than {@code maxWidth}. Wider images are subsampled by the decoder while reading, so
+     * the full resolution raster is never held in memory, and then scaled down to exactly {@code maxWidth}.
+     *
+     * @param maxWidth the widest image to return in pixels, {@code 0} for no limit
+     * @throws IOException if the stream can not be read or the format is not supported
+     */
+    public static @NotNull BufferedImage read(@NotNull InputStream content, int maxWidth) throws IOException {
+        // The memory cache keeps ImageIO from spooling the stream to a temporary file, but holds everything read so far
+        try (ImageInputStream input = new MemoryCacheImageInputStream(content)) {
+            return read(input, maxWidth);
+        }
+    }
+
+    /**
+     * Decodes an image no wider than {@code maxWidth} from a seekable stream, see {@link #read(InputStream, int)}.
+     * Prefer this for stored images, a file backed stream lets the decoder seek instead of caching the source.
+     * The stream is not closed.
+     *
+     * @param maxWidth the widest image to return in pixels, {@code 0} for no limit
+     * @throws IOException if the stream can not be read or the format is not supported
+     */
+    public static @NotNull BufferedImage read(@NotNull ImageInputStream input, int maxWidth) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format for conversion to webp");
+        }
+
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            int width = reader.getWidth(0);
+            if (maxWidth > 0 && width >= 2 * maxWidth) {
+                // Skipping pixels aliases, so only subsample down to at least twice the limit
+                // and leave the rest to the filtered resize
+                int step = width / (2 * maxWidth);
+                param.setSourceSubsampling(step, step, 0, 0);
+            }
+            BufferedImage image = reader.read(0, param);
+            return maxWidth > 0 ? resizeToWidth(image, maxWidth) : image;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    public static @NotNull byte[] encode(@NotNull BufferedImage image, float quality) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        encode(image, quality, baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Encodes the image as webp straight into the given stream, which is flushed but not closed.
+     */
+    public static void encode(@NotNull BufferedImage image, float quality, @NotNull OutputStream out) throws IOException {
+        ImageWriter writer = writer();
+        ImageWriteParam param = WRITE_PARAMS.get().computeIfAbsent(quality, q -> writeParam(writer, q));
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.reset(); // drops the output, the writer itself is kept for the next image
+        }
+    }
+
+    /**
+     * Disposes of the webp writer the calling thread keeps for {@link #encode}. Does nothing if the thread has not
+     * encoded anything, should it encode again a new writer is created.
+     */
+    public static void disposeWriter() {
+        ImageWriter writer = WRITER.get();
+        WRITER.remove();
+        WRITE_PARAMS.remove();
+        if (writer != null) writer.dispose();
+    }
+
+    /**
+     * Scales the image down to the given width, keeping its aspect ratio. Large reductions are done in
+     * several halving steps, which keeps bilinear filtering from dropping detail.
+     * Images that are already narrow enough are returned as is.
+     */
+    public static @NotNull BufferedImage resizeToWidth(@NotNull BufferedImage image, int width) {
+        if (width >= image.getWidth()) return image;
+        int height = Math.max(1, Math.round((float) image.getHeight() * width / image.getWidth()));
+
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+
+            int type = current.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+            BufferedImage scaled = new BufferedImage(currentWidth, currentHeight, type);
+            Graphics2D graphics = scaled.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = scaled;
+        } while (currentWidth != width || currentHeight != height);
+
+        return current;
+    }
+
+    /**
+     * Builds a low quality image placeholder: a tiny, heavily compressed webp of the image as a
+     * {@code data:} URI, small enough to be inlined into listings and blurred by the client while the real image loads.
+     */
+    public static @NotNull String placeholder(@NotNull BufferedImage image) throws IOException {
+        byte[] tiny = encode(resizeToWidth(image, PLACEHOLDER_WIDTH), PLACEHOLDER_QUALITY);
+        return "data:" + WEBP_MIME_TYPE + ";base64," + Base64.getEncoder().encodeToString(tiny);
+    }
+
+    private static @NotNull ImageWriter writer() {
+        ImageWriter writer = WRITER.get();
+        if (writer == null) {
+            writer = ImageIO.getImageWritersByMIMEType(WEBP_MIME_TYPE).next();
+            WRITER.set(writer);
+        }
+        return writer;
+    }
+
+    private static @NotNull ImageWriteParam writeParam(@NotNull ImageWriter writer, float quality) {
+        WebPWriteParam param = new WebPWriteParam(writer.getLocale());
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType(param.getCompressionTypes()[WebPWriteParam.LOSSY_COMPRESSION]);
+            param.setCompressionQuality(quality);
+        }
+        return param;
+    }
+}
@@ -0,0 +1,89 @@
+package me.astroreen.liblanka.domain.product;
+
+import jakarta.persistence.EntityManager;
+import me.astroreen.liblanka.domain.product.entity.Product;
+import me.astroreen.liblanka.domain.product.entity.ProductColor;
+import me.astroreen.liblanka.domain.product.entity.ProductSize;
+import me.astroreen.liblanka.domain.product.entity.ProductType;
+import me.astroreen.liblanka.domain.product.entity.ProductVariant;
+import me.astroreen.liblanka.domain.product.repository.ProductColorRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductSizeRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductTypeRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Counts the statements Hibernate prepares to insert a product with 50 variants. With identity ids every variant
+ * was an insert of its own, with pooled sequences and JDBC batching the variants go out as a single batch.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+class ProductBatchInsertTests {
+
+    @Container
+    @ServiceConnection
+    private static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine")
+            .withInitScript("db/create-schema.sql");
+
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private ProductTypeRepository productTypeRepository;
+    @Autowired
+    private ProductColorRepository productColorRepository;
+    @Autowired
+    private ProductSizeRepository productSizeRepository;
+
+    @Test
+    void variantsOfANewProductAreInsertedInOneBatch() {
+        ProductType type = productTypeRepository.save(ProductType.builder().name("Dress").build());
+        List<ProductColor> colors = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            colors.add(productColorRepository.save(ProductColor.builder().name("Color " + i).hex(String.format("#%06x", i)).build()));
+        }
+        List<ProductSize> sizes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            sizes.add(productSizeRepository.save(ProductSize.builder().name("Size " + i).build()));
+        }
+        entityManager.flush();
+
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        Product product = Product.builder()
+                .name("Summer dress")
+                .type(type)
+                .price(new BigDecimal("49.90"))
+                .variants(new ArrayList<>())
+                .build();
+        for (ProductColor color : colors) {
+            for (ProductSize size : sizes) {
+                product.getVariants().add(ProductVariant.builder().product(product).color(color).size(size).quantity(1).build());
+            }
+        }
+        productRepository.save(product);
+        entityManager.flush();
+
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(51);
+        // One sequence call per table and one insert per table, instead of 51 inserts
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(4);
+    }
+}
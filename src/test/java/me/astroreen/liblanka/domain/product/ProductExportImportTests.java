@@ -0,0 +1,109 @@
+package me.astroreen.liblanka.domain.product;
+
+import jakarta.persistence.EntityManager;
+import me.astroreen.liblanka.domain.product.dto.ProductFileFormat;
+import me.astroreen.liblanka.domain.product.dto.ProductImportResultDto;
+import me.astroreen.liblanka.domain.product.entity.Product;
+import me.astroreen.liblanka.domain.product.entity.ProductColor;
+import me.astroreen.liblanka.domain.product.entity.ProductSize;
+import me.astroreen.liblanka.domain.product.entity.ProductType;
+import me.astroreen.liblanka.domain.product.entity.ProductVariant;
+import me.astroreen.liblanka.domain.product.repository.ProductColorRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductSizeRepository;
+import me.astroreen.liblanka.domain.product.repository.ProductTypeRepository;
+import me.astroreen.liblanka.domain.product.service.ProductExportService;
+import me.astroreen.liblanka.domain.product.service.ProductImportService;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Exports a product whose names and attributes contain the separators of the file formats, imports the file again
+ * and expects the same product back.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+@Import({ProductExportService.class, ProductImportService.class})
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+class ProductExportImportTests {
+
+    @Container
+    @ServiceConnection
+    private static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine")
+            .withInitScript("db/create-schema.sql");
+
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private ProductTypeRepository productTypeRepository;
+    @Autowired
+    private ProductColorRepository productColorRepository;
+    @Autowired
+    private ProductSizeRepository productSizeRepository;
+    @Autowired
+    private ProductExportService productExportService;
+    @Autowired
+    private ProductImportService productImportService;
+
+    @ParameterizedTest
+    @EnumSource(ProductFileFormat.class)
+    void exportedProductsAreImportedUnchanged(ProductFileFormat format) throws IOException {
+        ProductType type = productTypeRepository.save(ProductType.builder().name("Dress").build());
+        ProductColor color = productColorRepository.save(ProductColor.builder().name("Red: dark; matte").hex("#800000").build());
+        ProductSize size = productSizeRepository.save(ProductSize.builder().name("3:4 \\ tall").build());
+        Product product = Product.builder()
+                .name("Summer dress")
+                .type(type)
+                .description("Light, airy")
+                .price(new BigDecimal("49.90"))
+                .attributes(List.of("a; b", "c:d", "back\\slash"))
+                .variants(new ArrayList<>())
+                .build();
+        product.getVariants().add(ProductVariant.builder().product(product).color(color).size(size).quantity(3).build());
+        productRepository.save(product);
+        entityManager.flush();
+
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        productExportService.export(exported, format);
+        productRepository.deleteAll();
+        entityManager.flush();
+        entityManager.clear();
+
+        ProductImportResultDto result = productImportService.importProducts(
+                new ByteArrayInputStream(exported.toByteArray()), format);
+
+        assertThat(result.getFailed()).isZero();
+        assertThat(result.getImported()).isEqualTo(1);
+        Product imported = productRepository.findAll().getFirst();
+        assertThat(imported.getName()).isEqualTo("Summer dress");
+        assertThat(imported.getDescription()).isEqualTo("Light, airy");
+        assertThat(imported.getAttributes()).containsExactly("a; b", "c:d", "back\\slash");
+        assertThat(imported.getVariants()).singleElement().satisfies(variant -> {
+            assertThat(variant.getColor().getId()).isEqualTo(color.getId());
+            assertThat(variant.getSize().getId()).isEqualTo(size.getId());
+            assertThat(variant.getQuantity()).isEqualTo(3);
+        });
+    }
+}
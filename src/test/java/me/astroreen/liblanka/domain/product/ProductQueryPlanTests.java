@@ -0,0 +1,153 @@
+package me.astroreen.liblanka.domain.product;
+
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the Liquibase changelog against a throwaway Postgres and checks that the queries of the product repositories
+ * and filters are planned with the indexes meant for them. Sequential scans are disabled for the session, so the
+ * planner picks a usable index regardless of how little data the tables hold, and falls back to a scan only if
+ * there is none.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ProductQueryPlanTests {
+
+    @Container
+    private static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @TempDir
+    private static Path imageStoragePath;
+
+    private static Connection connection;
+
+    @BeforeAll
+    static void migrate() throws Exception {
+        connection = DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE SCHEMA liblanka");
+        }
+
+        Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+        database.setDefaultSchemaName("liblanka");
+        Liquibase liquibase = new Liquibase("db/changelog/main-changelog.xml", new ClassLoaderResourceAccessor(), database);
+        liquibase.setChangeLogParameter("imageStoragePath", imageStoragePath.toString());
+        liquibase.update("");
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET search_path TO liblanka, public");
+            statement.execute("SET enable_seqscan TO off");
+        }
+    }
+
+    @AfterAll
+    static void close() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void variantsAreReadByProduct() throws SQLException {
+        assertUsesIndex("SELECT color_id, size_id FROM product_variant WHERE product_id = 1",
+                "idx_product_variant_product_color_size");
+    }
+
+    @Test
+    void productsAreFoundByColorAndSize() throws SQLException {
+        assertUsesIndex("SELECT DISTINCT product_id FROM product_variant WHERE color_id = 1",
+                "idx_product_variant_color_product");
+        assertUsesIndex("SELECT DISTINCT product_id FROM product_variant WHERE size_id = 1",
+                "idx_product_variant_size_product");
+    }
+
+    @Test
+    void coverImageIsFoundByProductAndStatus() throws SQLException {
+        assertUsesIndex("SELECT max(id) FROM product_images WHERE product_id = 1 AND status = 'READY'",
+                "idx_product_images_product_status");
+        assertUsesIndex("SELECT id FROM product_images WHERE product_id = 1 AND status = 'PENDING' ORDER BY id",
+                "idx_product_images_product_status");
+    }
+
+    @Test
+    void pendingImagesAreFoundWithoutProduct() throws SQLException {
+        assertUsesIndex("SELECT DISTINCT product_id FROM product_images WHERE status = 'PENDING'",
+                "idx_product_images_pending");
+    }
+
+    @Test
+    void renditionsAreReadByImage() throws SQLException {
+        assertUsesIndex("SELECT * FROM product_image_rendition WHERE image_id = 1 ORDER BY width",
+                "idx_product_image_rendition_image");
+    }
+
+    @Test
+    void storedContentIsLookedUpByHash() throws SQLException {
+        assertUsesIndex("SELECT id FROM product_images WHERE source_hash = 'abc' AND status = 'READY'",
+                "idx_product_images_source_hash");
+        assertUsesIndex("SELECT 1 FROM product_image_rendition WHERE content_hash = 'abc'",
+                "idx_product_image_rendition_content_hash");
+    }
+
+    @Test
+    void productsOfATypeAreOrderedByPrice() throws SQLException {
+        assertUsesIndex("SELECT id FROM product WHERE type_id = 1 ORDER BY price", "idx_product_type_price");
+    }
+
+    @Test
+    void sortedListingsSeekThroughTheSortIndex() throws SQLException {
+        assertUsesIndex("SELECT id FROM product WHERE price >= 10 AND (price > 10 OR id > 5) ORDER BY price, id LIMIT 21",
+                "idx_product_price_id");
+        assertUsesIndex("SELECT id FROM product WHERE price <= 10 AND (price < 10 OR id < 5) ORDER BY price DESC, id DESC LIMIT 21",
+                "idx_product_price_id");
+        assertUsesIndex("SELECT id FROM product WHERE name >= 'b' AND (name > 'b' OR id > 5) ORDER BY name, id LIMIT 21",
+                "idx_product_name_id");
+    }
+
+    @Test
+    void nameFilterAndSearchUseTextIndexes() throws SQLException {
+        assertUsesIndex("SELECT id FROM product WHERE lower(name) LIKE '%dress%'", "idx_product_name_trgm");
+        assertUsesIndex("SELECT id FROM product WHERE search_vector @@ to_tsquery('simple', 'dre:*')",
+                "idx_product_search_vector");
+    }
+
+    @Test
+    void usersAreFoundByEmail() throws SQLException {
+        assertThat(explain("SELECT id FROM _user WHERE email = 'someone@example.com'"))
+                .contains("Index")
+                .doesNotContain("Seq Scan");
+    }
+
+    private static void assertUsesIndex(String sql, String index) throws SQLException {
+        assertThat(explain(sql))
+                .contains(index)
+                .doesNotContain("Seq Scan");
+    }
+
+    private static String explain(String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("EXPLAIN " + sql)) {
+            while (rows.next()) {
+                plan.append(rows.getString(1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,2 @@
+-- The changelog expects the schema to exist, like the production database
+CREATE SCHEMA liblanka;